@@ -0,0 +1,46 @@
+package com.adri0.librarian.benchmarks;
+
+import com.adri0.librarian.core.Book;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds books to the synthetic library. The books added by each
+ * iteration are removed after it, so every iteration starts from
+ * the catalog of the setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class AddBookBenchmark {
+
+    private final List<Integer> added = new ArrayList<>();
+    private int next;
+
+    @Benchmark
+    public Book addNewTitle(LibraryState state) {
+        return added(state.library.addBook("New Title " + next++, "Homer", 1998));
+    }
+
+    @Benchmark
+    public Book addCopyOfExistingTitle(LibraryState state) {
+        return added(state.library.addBook("Emma", "Jane Austen", 1994));
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeAdded(LibraryState state) {
+        added.forEach(state.library::removeBook);
+        added.clear();
+    }
+
+    private Book added(Book book) {
+        added.add(book.getId());
+        return book;
+    }
+}
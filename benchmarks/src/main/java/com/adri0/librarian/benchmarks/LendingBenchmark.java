@@ -0,0 +1,50 @@
+package com.adri0.librarian.benchmarks;
+
+import com.adri0.librarian.core.Lending;
+import com.adri0.librarian.core.Library;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class LendingBenchmark {
+
+    private int next;
+
+    @Benchmark
+    public Lending lendAndReturn(LibraryState state) {
+        int bookId = state.availableBookId(next++ * 7919);
+        Lending lending = state.library.lendBook(bookId, state.user);
+        state.library.returnBook(bookId);
+        return lending;
+    }
+
+    /**
+     * Checks a book out and returns it without building its Lending.
+     * With a bounded history this doesn't allocate once warmed up,
+     * check with `-prof gc`.
+     */
+    @Benchmark
+    public void checkOutAndReturn(BoundedHistory state) {
+        int bookId = state.availableBookId(next++ * 7919);
+        state.library.checkOut(bookId, state.user);
+        state.library.returnBook(bookId);
+    }
+
+    /**
+     * The synthetic library, keeping only the last two segments
+     * of its lending history.
+     */
+    public static class BoundedHistory extends LibraryState {
+
+        @Override
+        protected Library.Builder libraryBuilder() {
+            return Library.builder().historySegmentsInMemory(2);
+        }
+    }
+}
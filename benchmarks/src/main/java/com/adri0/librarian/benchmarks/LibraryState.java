@@ -0,0 +1,59 @@
+package com.adri0.librarian.benchmarks;
+
+import com.adri0.librarian.core.Book;
+import com.adri0.librarian.core.Library;
+import com.adri0.librarian.core.Title;
+import com.adri0.librarian.core.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A synthetic library shared by the benchmarks, with every
+ * tenth copy lent out. Copies whose id isn't a multiple of
+ * ten are available.
+ */
+@State(Scope.Benchmark)
+public class LibraryState {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    public Library library;
+    public Title[] titles;
+    public User user;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        library = SyntheticCatalog.library(size, libraryBuilder());
+        user = new User("Alicja");
+        Set<Title> distinctTitles = new LinkedHashSet<>();
+        List<Integer> toLend = new ArrayList<>();
+        for (Book book : library.search().execute()) {
+            distinctTitles.add(book.getTitleObj());
+            if (book.getId() % 10 == 0) {
+                toLend.add(book.getId());
+            }
+        }
+        toLend.forEach(bookId -> library.lendBook(bookId, user));
+        titles = distinctTitles.toArray(new Title[0]);
+    }
+
+    /**
+     * Configures the library, states extending this one may tune it.
+     */
+    protected Library.Builder libraryBuilder() {
+        return Library.builder();
+    }
+
+    /**
+     * Returns the id of a copy that isn't lent by the setup.
+     */
+    public int availableBookId(int seed) {
+        int bookId = 1 + Math.floorMod(seed, size);
+        return bookId % 10 == 0 ? bookId - 1 : bookId;
+    }
+}
@@ -0,0 +1,69 @@
+package com.adri0.librarian.benchmarks;
+
+import com.adri0.librarian.core.Lending;
+import com.adri0.librarian.core.Library;
+import com.adri0.librarian.core.LibraryStore;
+import com.adri0.librarian.core.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares lending and returning books in a library kept in memory
+ * with one persisted by a LibraryStore.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class LibraryStoreBenchmark {
+
+    private static final int SIZE = 100_000;
+
+    @Param({"false", "true"})
+    public boolean persisted;
+
+    private Path directory;
+    private LibraryStore store;
+    private Library library;
+    private User user;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (persisted) {
+            directory = Files.createTempDirectory("librarian-benchmark");
+            store = LibraryStore.open(directory);
+            library = store.getLibrary();
+        } else {
+            library = new Library();
+        }
+        SyntheticCatalog.generate(SIZE, 58, library::addBook);
+        user = new User("Alicja");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (store != null) {
+            store.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public Lending lendAndReturn() {
+        int bookId = 1 + Math.floorMod(next++ * 7919, SIZE);
+        Lending lending = library.lendBook(bookId, user);
+        library.returnBook(bookId);
+        return lending;
+    }
+}
@@ -0,0 +1,31 @@
+package com.adri0.librarian.benchmarks;
+
+import com.adri0.librarian.core.Book;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Book lookups by id. Run with `-prof gc` to compare
+ * the allocation rate of the lookups.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class LookupBenchmark {
+
+    private int next;
+
+    @Benchmark
+    public Book getBook(LibraryState state) {
+        return state.library.getBook(state.availableBookId(next++ * 7919));
+    }
+
+    @Benchmark
+    public boolean containsBook(LibraryState state) {
+        return state.library.containsBook(state.availableBookId(next++ * 7919));
+    }
+}
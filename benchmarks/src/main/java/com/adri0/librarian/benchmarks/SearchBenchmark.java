@@ -0,0 +1,38 @@
+package com.adri0.librarian.benchmarks;
+
+import com.adri0.librarian.core.Book;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class SearchBenchmark {
+
+    @Benchmark
+    public List<Book> byAuthorAndYear(LibraryState state) {
+        return state.library.search()
+                .byAuthor("austen")
+                .byYear(1994)
+                .execute();
+    }
+
+    @Benchmark
+    public List<Book> byPredicate(LibraryState state) {
+        return state.library.search()
+                .by(book -> book.getYear() > 2020)
+                .execute();
+    }
+
+    @Benchmark
+    public List<Book> byPredicateInParallel(LibraryState state) {
+        return state.library.search()
+                .by(book -> book.getYear() > 2020)
+                .parallel()
+                .execute();
+    }
+}
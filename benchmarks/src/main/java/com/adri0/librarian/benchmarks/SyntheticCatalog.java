@@ -0,0 +1,60 @@
+package com.adri0.librarian.benchmarks;
+
+import com.adri0.librarian.core.Library;
+import com.adri0.librarian.sampledata.Top58Titles;
+import com.adri0.librarian.sampledata.Top58Titles.BookTitleParameters;
+
+import java.util.Random;
+
+/**
+ * Generates libraries of any size out of the titles in Top58Titles.
+ *
+ * Each of the 58 titles is repeated in variations, a volume number
+ * appended to the title and the year shifted by up to 30 years, and
+ * each variation gets between 1 and 8 copies. Authors are kept, so
+ * author searches match a share of the library that doesn't depend
+ * on its size. Generation is deterministic for a given seed.
+ */
+public final class SyntheticCatalog {
+
+    private static final int MAX_COPIES_PER_TITLE = 8;
+    private static final long DEFAULT_SEED = 58;
+
+    private SyntheticCatalog() {
+    }
+
+    /**
+     * Creates a library with the given number of copies.
+     */
+    public static Library library(int copies) {
+        return library(copies, Library.builder());
+    }
+
+    /**
+     * Creates a library with the given number of copies,
+     * configured by the given builder.
+     */
+    public static Library library(int copies, Library.Builder builder) {
+        Library library = builder.build();
+        generate(copies, DEFAULT_SEED, library::addBook);
+        return library;
+    }
+
+    public static void generate(int copies, long seed, BookTitleParameters bookTitleParameters) {
+        Random random = new Random(seed);
+        String[][] titles = Top58Titles.top58;
+        int generated = 0;
+        for (int variation = 0; generated < copies; variation++) {
+            for (int i = 0; i < titles.length && generated < copies; i++) {
+                String title = variation == 0 ? titles[i][0] : titles[i][0] + " Vol. " + variation;
+                String author = titles[i][1];
+                int year = Integer.parseInt(titles[i][2]) + variation % 30;
+                int titleCopies = Math.min(1 + random.nextInt(MAX_COPIES_PER_TITLE), copies - generated);
+                for (int copy = 0; copy < titleCopies; copy++) {
+                    bookTitleParameters.provide(title, author, year);
+                }
+                generated += titleCopies;
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.adri0.librarian.benchmarks;
+
+import com.adri0.librarian.core.TitleOverview;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class TitleOverviewBenchmark {
+
+    private int next;
+
+    @Benchmark
+    public TitleOverview getTitleOverview(LibraryState state) {
+        return state.library.getTitleOverview(state.titles[Math.floorMod(next++ * 31, state.titles.length)]);
+    }
+
+    @Benchmark
+    public List<TitleOverview> listAllTitles(LibraryState state) {
+        return state.library.listAllTitles();
+    }
+}
@@ -108,12 +108,12 @@ public class SampleScenario {
 
         print("> library.search()");
         print(">        .byAuthor(\"austen\")");
-        print(">        .by(book -> book.getYear() > 1990);");
+        print(">        .publishedAfter(1990)");
         print(">        .execute();");
 
         result = library.search()
                 .byAuthor("austen")
-                .by(book -> book.getYear() > 1990)
+                .publishedAfter(1990)
                 .execute();
 
         printAll(result);
@@ -0,0 +1,85 @@
+package com.adri0.librarian.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of lending or returning a batch of books, item by item,
+ * in the order the bookIds were given. See `Library.lendBooks`
+ * and `Library.returnBooks`.
+ *
+ * Each item either succeeded, with the lending that was started or
+ * finished, or failed with the exception the single book operation
+ * would have thrown.
+ */
+public class BatchResult {
+
+    private final Lending[] lendings;
+    private final RuntimeException[] failures;
+
+    BatchResult(int size) {
+        this.lendings = new Lending[size];
+        this.failures = new RuntimeException[size];
+    }
+
+    void succeeded(int index, Lending lending) {
+        lendings[index] = lending;
+    }
+
+    void failed(int index, RuntimeException failure) {
+        failures[index] = failure;
+    }
+
+    public int size() {
+        return lendings.length;
+    }
+
+    public boolean isSuccess(int index) {
+        return failures[index] == null;
+    }
+
+    /**
+     * The lending started or finished by the item, or null if it failed.
+     */
+    public Lending getLending(int index) {
+        return lendings[index];
+    }
+
+    /**
+     * Why the item failed, or null if it succeeded.
+     */
+    public RuntimeException getFailure(int index) {
+        return failures[index];
+    }
+
+    /**
+     * Number of items that succeeded.
+     */
+    public int successes() {
+        int successes = 0;
+        for (RuntimeException failure : failures) {
+            if (failure == null) {
+                successes++;
+            }
+        }
+        return successes;
+    }
+
+    /**
+     * Lendings of the items that succeeded, in order.
+     */
+    public List<Lending> getLendings() {
+        List<Lending> succeeded = new ArrayList<>();
+        for (Lending lending : lendings) {
+            if (lending != null) {
+                succeeded.add(lending);
+            }
+        }
+        return succeeded;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{size=" + size() + ", successes=" + successes() + "}";
+    }
+}
@@ -1,5 +1,7 @@
 package com.adri0.librarian.core;
 
+import java.time.LocalDateTime;
+
 /**
  * Book represents a unique book copy in the library.
  * A Book is composed by an id (integer) and an
@@ -11,12 +13,38 @@ public class Book {
 
     private final int id;
     private final Title title;
+
+    /**
+     * The current loan of the book, kept in place so lending a book
+     * doesn't allocate. The borrower is null while the book is available.
+     * The `Lending` view of the loan is only built when asked for, and
+     * then kept until the book is returned. Guarded by `this`, the
+     * borrower is also volatile so availability is read without locking.
+     */
+    private volatile User borrower;
+    private long lentAt;
+    private long dueAt;
+    private int historyRow;
     private Lending lending;
 
+    /**
+     * Links of the book in the due date index while it is lent,
+     * see `DueDateIndex`. Guarded by the book's lock stripe.
+     */
+    DueDateIndex.Bucket dueBucket;
+    Book nextDue;
+    Book previousDue;
+
+    /**
+     * Links of the book among the books its borrower has,
+     * see `UserRecord`. Guarded by the borrower's record.
+     */
+    Book nextOfBorrower;
+    Book previousOfBorrower;
+
     Book(int id, Title title) {
         this.id = id;
         this.title = title;
-        this.lending = null;
     }
 
     public Title getTitleObj() {
@@ -28,7 +56,7 @@ public class Book {
     }
 
     public boolean isAvailable() {
-        return lending == null;
+        return borrower == null;
     }
 
     public String getAuthor() {
@@ -43,15 +71,74 @@ public class Book {
         return title.getYear();
     }
 
-    void setLending(Lending lending) {
+    /**
+     * The lending of the book, or null if it is available.
+     */
+    synchronized Lending getLending() {
+        if (lending == null && borrower != null) {
+            lending = new Lending(this, borrower, lentAt, dueAt, LendingHistory.NOT_RETURNED, historyRow);
+        }
+        return lending;
+    }
+
+    /**
+     * The lending of the book if it is the one recorded
+     * in the given row of the history, or null.
+     */
+    synchronized Lending getLending(int historyRow) {
+        return borrower != null && this.historyRow == historyRow ? getLending() : null;
+    }
+
+    synchronized void lend(User user, long lentAt, long dueAt, int historyRow) {
+        this.lentAt = lentAt;
+        this.dueAt = dueAt;
+        this.historyRow = historyRow;
+        this.lending = null;
+        this.borrower = user;
+    }
+
+    synchronized void setLending(Lending lending) {
+        lend(lending.getUser(), lending.lentAtMillis(), lending.dueAtMillis(), lending.getHistoryRow());
         this.lending = lending;
     }
 
+    /*
+     * The following getters describe the current loan. The library
+     * reads them while holding the book's lock stripe, so they agree.
+     */
+
+    User getBorrower() {
+        return borrower;
+    }
+
+    synchronized long lentAtMillis() {
+        return lentAt;
+    }
+
+    synchronized long dueAtMillis() {
+        return dueAt;
+    }
+
+    synchronized int historyRow() {
+        return historyRow;
+    }
+
     void returnBook() {
-        if (lending == null) {
+        returnBook(LendingHistory.toMillis(LocalDateTime.now()));
+    }
+
+    /**
+     * Ends the current loan, finishing its lending if it was handed out.
+     */
+    synchronized void returnBook(long returnedAt) {
+        if (borrower == null) {
             throw new IllegalStateException("cannot return book with has been lent");
         }
+        if (lending != null) {
+            lending.returned(returnedAt);
+        }
         this.lending = null;
+        this.borrower = null;
     }
 
     @Override
@@ -59,7 +146,7 @@ public class Book {
         return "Book{" +
                 "id=" + id +
                 ", " + title +
-                ", lending=" + (lending == null ? "no" : lending.getUser()) +
+                ", lending=" + (borrower == null ? "no" : borrower) +
                 '}';
     }
 }
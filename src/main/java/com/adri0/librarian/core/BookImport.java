@@ -0,0 +1,65 @@
+package com.adri0.librarian.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsing of the delimited files accepted by `Library.importBooks`.
+ *
+ * Each line holds the title, author and year of one copy, separated by
+ * the given separator. Fields can be enclosed in double quotes, in which
+ * case they may contain the separator and doubled quotes stand for a quote.
+ * Blank lines and lines starting with '#' are skipped.
+ */
+final class BookImport {
+
+    private BookImport() {
+    }
+
+    static boolean isSkipped(String line) {
+        return line.trim().isEmpty() || line.startsWith("#");
+    }
+
+    static Title parseLine(String line, char separator) {
+        List<String> fields = split(line, separator);
+        if (fields.size() != 3) {
+            throw new IllegalArgumentException("expected title, author and year: " + line);
+        }
+        try {
+            return new Title(fields.get(0), fields.get(1), Integer.parseInt(fields.get(2).trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid year: " + line, e);
+        }
+    }
+
+    private static List<String> split(String line, char separator) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == separator) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote: " + line);
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,178 @@
+package com.adri0.librarian.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Compact binary file of the catalog of a library, its titles and
+ * copies, read through a memory mapping. See `Library.openCatalog`.
+ *
+ * The file holds, after a header:
+ * - a string table: where each string starts and where the last one
+ *   ends, then their UTF-8 bytes, each distinct title and author
+ *   written once,
+ * - the titles, as fixed-width records of the indexes of their title and
+ *   author strings and their year,
+ * - the copies, as the index of the title of each bookId from 1 to the
+ *   last bookId, or -1 for bookIds without a copy.
+ *
+ * Titles and copies are read in place from the mapping, no copy is
+ * parsed into objects up front, see `Library.openCatalog`.
+ */
+final class CatalogFile {
+
+    private static final int MAGIC = 0x4C494243;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 5 * Integer.BYTES;
+    private static final int TITLE_BYTES = 3 * Integer.BYTES;
+    static final int NO_TITLE = -1;
+
+    private final ByteBuffer buffer;
+    private final int titleCount;
+    private final int lastBookId;
+    private final int stringBytes;
+    private final int titles;
+    private final int copies;
+
+    private CatalogFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("not a library catalog");
+        }
+        int stringCount = buffer.getInt(8);
+        this.titleCount = buffer.getInt(12);
+        this.lastBookId = buffer.getInt(16);
+        this.stringBytes = HEADER_BYTES + (stringCount + 1) * Integer.BYTES;
+        this.titles = stringBytes + buffer.getInt(stringBytes - Integer.BYTES);
+        this.copies = titles + titleCount * TITLE_BYTES;
+        if ((long) copies + (long) lastBookId * Integer.BYTES != buffer.limit()) {
+            throw new IOException("truncated library catalog");
+        }
+    }
+
+    /**
+     * Maps a catalog file. The mapping stays valid once the file is closed.
+     */
+    static CatalogFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("library catalog too large: " + file);
+            }
+            return new CatalogFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    int titleCount() {
+        return titleCount;
+    }
+
+    int lastBookId() {
+        return lastBookId;
+    }
+
+    Title title(int index) {
+        int record = titles + index * TITLE_BYTES;
+        return new Title(string(buffer.getInt(record)), string(buffer.getInt(record + 4)),
+                buffer.getInt(record + 8));
+    }
+
+    /**
+     * Index of the title of a copy, or NO_TITLE.
+     */
+    int titleOf(int bookId) {
+        if (bookId < 1 || bookId > lastBookId) {
+            return NO_TITLE;
+        }
+        return buffer.getInt(copies + (bookId - 1) * Integer.BYTES);
+    }
+
+    private String string(int index) {
+        int offset = HEADER_BYTES + index * Integer.BYTES;
+        int start = buffer.getInt(offset);
+        int end = buffer.getInt(offset + Integer.BYTES);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(stringBytes + start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the catalog of a library. The library is locked while its
+     * titles and copies are collected, and not while they are written.
+     */
+    static void write(Library library, Path file) throws IOException {
+        List<Title> titleList = new ArrayList<>();
+        List<int[]> copyIds = new ArrayList<>();
+        int[] lastBookId = {0};
+        library.exclusively(() -> {
+            for (TitleRecord record : library.titleRecords()) {
+                int[] ids = record.copyIds();
+                if (ids.length > 0) {
+                    titleList.add(record.getTitle());
+                    copyIds.add(ids);
+                }
+            }
+            lastBookId[0] = library.lastBookId();
+        });
+
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        int[] titleRecords = new int[titleList.size() * 3];
+        for (int i = 0; i < titleList.size(); i++) {
+            Title title = titleList.get(i);
+            titleRecords[3 * i] = strings.computeIfAbsent(title.getTitle(), s -> strings.size());
+            titleRecords[3 * i + 1] = strings.computeIfAbsent(title.getAuthor(), s -> strings.size());
+            titleRecords[3 * i + 2] = title.getYear();
+        }
+        List<byte[]> encoded = new ArrayList<>(strings.size());
+        long stringBytes = 0;
+        for (String string : strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            stringBytes += bytes.length;
+        }
+        int[] titleOfBook = new int[lastBookId[0]];
+        Arrays.fill(titleOfBook, NO_TITLE);
+        for (int i = 0; i < copyIds.size(); i++) {
+            for (int bookId : copyIds.get(i)) {
+                titleOfBook[bookId - 1] = i;
+            }
+        }
+
+        long size = HEADER_BYTES + (encoded.size() + 1L) * Integer.BYTES + stringBytes
+                + (long) titleRecords.length * Integer.BYTES + (long) titleOfBook.length * Integer.BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("library catalog too large: " + size + " bytes");
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, CREATE, READ, WRITE, TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(MAGIC).putInt(VERSION).putInt(encoded.size()).putInt(titleList.size()).putInt(lastBookId[0]);
+            int start = 0;
+            out.putInt(start);
+            for (byte[] bytes : encoded) {
+                start += bytes.length;
+                out.putInt(start);
+            }
+            for (byte[] bytes : encoded) {
+                out.put(bytes);
+            }
+            out.asIntBuffer().put(titleRecords).put(titleOfBook);
+            out.force();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
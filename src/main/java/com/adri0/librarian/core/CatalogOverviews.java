@@ -0,0 +1,127 @@
+package com.adri0.librarian.core;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * The overviews catalog snapshots are built from, see `Library.catalogSnapshot`.
+ *
+ * Each title record is given a slot when its first overview is stored,
+ * so slots are in the order titles were added, and overviews are kept
+ * in an `IdTable` by slot. Each snapshot freezes the table, so the next
+ * one only copies the pages of the slots changed in between, never
+ * the overviews of the whole catalog.
+ *
+ * Slots of dropped titles are left empty until there are as many of
+ * them as titles, then the slots are renumbered in a fresh table.
+ *
+ * Not thread safe, the library serializes its use.
+ */
+final class CatalogOverviews {
+
+    private static final int MIN_SLOTS_TO_COMPACT = 1024;
+
+    private IdTable<TitleOverview> overviews;
+
+    /**
+     * The record of each slot, null once dropped.
+     */
+    private List<TitleRecord> records;
+
+    CatalogOverviews() {
+        this.overviews = new IdTable<>();
+        this.records = new ArrayList<>();
+    }
+
+    /**
+     * Stores the current overview of a title.
+     */
+    void put(TitleRecord record, TitleOverview overview) {
+        if (record.slot < 0) {
+            record.slot = records.size();
+            records.add(record);
+        }
+        overviews.put(record.slot, overview);
+    }
+
+    /**
+     * Drops the overview of a title, returns whether it had one.
+     */
+    boolean remove(TitleRecord record) {
+        if (record.slot < 0) {
+            return false;
+        }
+        overviews.remove(record.slot);
+        records.set(record.slot, null);
+        record.slot = -1;
+        if (records.size() >= MIN_SLOTS_TO_COMPACT && records.size() > 2 * overviews.size()) {
+            compact();
+        }
+        return true;
+    }
+
+    /**
+     * The overviews stored so far in slot order, as a list that no later
+     * change reaches. It can't be modified.
+     */
+    List<TitleOverview> freeze() {
+        return Collections.unmodifiableList(new FrozenList(overviews.freeze()));
+    }
+
+    private void compact() {
+        IdTable<TitleOverview> compacted = new IdTable<>();
+        List<TitleRecord> kept = new ArrayList<>(overviews.size());
+        for (TitleRecord record : records) {
+            if (record != null) {
+                compacted.put(kept.size(), overviews.get(record.slot));
+                record.slot = kept.size();
+                kept.add(record);
+            }
+        }
+        overviews = compacted;
+        records = kept;
+    }
+
+    /**
+     * The values of a frozen table as a list. `get` skips whole pages
+     * by their counts, iterating and streaming walk the pages.
+     */
+    private static final class FrozenList extends AbstractList<TitleOverview> {
+
+        private final IdTable<TitleOverview> overviews;
+
+        FrozenList(IdTable<TitleOverview> overviews) {
+            this.overviews = overviews;
+        }
+
+        @Override
+        public TitleOverview get(int index) {
+            return overviews.valueAt(index);
+        }
+
+        @Override
+        public int size() {
+            return overviews.size();
+        }
+
+        @Override
+        public Iterator<TitleOverview> iterator() {
+            return overviews.values().iterator();
+        }
+
+        @Override
+        public Spliterator<TitleOverview> spliterator() {
+            return overviews.values().spliterator();
+        }
+
+        @Override
+        public void forEach(Consumer<? super TitleOverview> action) {
+            overviews.values().forEach(action);
+        }
+    }
+}
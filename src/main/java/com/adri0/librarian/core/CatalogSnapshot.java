@@ -0,0 +1,32 @@
+package com.adri0.librarian.core;
+
+import java.util.List;
+
+/**
+ * Immutable overview of all titles in a library at a point in time.
+ * Each change to the catalog produces a new snapshot with a greater
+ * version, which shares the overviews of the titles that didn't change.
+ * See `Library.catalogSnapshot`.
+ */
+public final class CatalogSnapshot {
+
+    private final long version;
+    private final List<TitleOverview> titles;
+
+    CatalogSnapshot(long version, List<TitleOverview> titles) {
+        this.version = version;
+        this.titles = titles;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Overviews of the titles with copies in the library, in the order
+     * titles were first added. The list can't be modified.
+     */
+    public List<TitleOverview> getTitles() {
+        return titles;
+    }
+}
@@ -0,0 +1,78 @@
+package com.adri0.librarian.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The state of a library at a checkpoint, encoded into a snapshot file
+ * while the library keeps changing. See `Library.freezeCheckpoint`.
+ *
+ * The books, their availability and the users are frozen copies, taken
+ * in constant time. Lendings are found in the lending history up to the
+ * row it had reached, and the loans of the books lent then are read from
+ * the books themselves. A book returned since keeps its loan here,
+ * saved by the library before the return.
+ */
+final class CheckpointImage {
+
+    private final LibrarySnapshot books;
+    private final IdTable<UserRecord> users;
+    private final int lastBookId;
+    private final int historyEnd;
+
+    /**
+     * Loans of the books lent at the checkpoint and returned since, by bookId.
+     */
+    private final Map<Integer, Lending> returnedLoans;
+
+    CheckpointImage(LibrarySnapshot books, IdTable<UserRecord> users, int lastBookId, int historyEnd) {
+        this.books = books;
+        this.users = users;
+        this.lastBookId = lastBookId;
+        this.historyEnd = historyEnd;
+        this.returnedLoans = new ConcurrentHashMap<>();
+    }
+
+    LibrarySnapshot books() {
+        return books;
+    }
+
+    List<User> users() {
+        List<User> registered = new ArrayList<>(users.size());
+        for (UserRecord record : users.values()) {
+            registered.add(record.getUser());
+        }
+        return registered;
+    }
+
+    int lastBookId() {
+        return lastBookId;
+    }
+
+    /**
+     * Rows of the lending history recorded before the checkpoint are below it.
+     */
+    int historyEnd() {
+        return historyEnd;
+    }
+
+    /**
+     * Called by the library, holding the book's lock stripe,
+     * before a lent book is returned.
+     */
+    void returning(Book book) {
+        if (books.isLent(book.getId())) {
+            returnedLoans.putIfAbsent(book.getId(), book.getLending());
+        }
+    }
+
+    /**
+     * The loan a book had at the checkpoint, if it's been returned since.
+     * The caller holds the book's lock stripe.
+     */
+    Lending returnedLoan(int bookId) {
+        return returnedLoans.get(bookId);
+    }
+}
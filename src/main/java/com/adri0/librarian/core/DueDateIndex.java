@@ -0,0 +1,141 @@
+package com.adri0.librarian.core;
+
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Index of the lent books by due date, so overdue lendings are found
+ * without scanning every current lending.
+ *
+ * Books are grouped in buckets of a minute of due time, sorted by time.
+ * A bucket is a doubly linked list threaded through the lent books
+ * themselves, so a book is added and removed in constant time and
+ * without allocating, unless its bucket is new. Finding the books due
+ * within a range visits only the buckets within the range.
+ *
+ * The index is split in partitions, one per lock stripe of the library,
+ * and a partition is only used while holding its stripe.
+ */
+class DueDateIndex {
+
+    static final long BUCKET_MILLIS = 60_000;
+
+    private final Partition[] partitions;
+
+    DueDateIndex(int partitions) {
+        this.partitions = new Partition[partitions];
+        for (int i = 0; i < partitions; i++) {
+            this.partitions[i] = new Partition();
+        }
+    }
+
+    void add(int partition, Book book, long dueAt) {
+        partitions[partition].add(book, dueAt);
+    }
+
+    void remove(int partition, Book book) {
+        partitions[partition].remove(book);
+    }
+
+    /**
+     * Adds to `due` the current lendings of a partition
+     * due within [from, to), in no particular order.
+     */
+    void collect(int partition, long from, long to, List<Lending> due) {
+        partitions[partition].collect(from, to, due);
+    }
+
+    /**
+     * Books due within the same minute.
+     */
+    static final class Bucket {
+
+        private final Long minute;
+        private Book head;
+
+        private Bucket(Long minute) {
+            this.minute = minute;
+        }
+    }
+
+    private static class Partition {
+
+        private final NavigableMap<Long, Bucket> buckets = new TreeMap<>();
+
+        /**
+         * Bucket of the last added book. Books lent at about the same
+         * time are due in the same bucket, so it's found without a lookup.
+         * It's kept even while empty, so lending and returning a book
+         * over and over doesn't create a bucket every time.
+         */
+        private Bucket lastBucket;
+
+        void add(Book book, long dueAt) {
+            long minute = Math.floorDiv(dueAt, BUCKET_MILLIS);
+            Bucket bucket = lastBucket;
+            if (bucket == null || bucket.minute != minute) {
+                Bucket last = bucket;
+                if (last != null && last.head == null) {
+                    buckets.remove(last.minute);
+                }
+                bucket = buckets.get(minute);
+                if (bucket == null) {
+                    bucket = new Bucket(minute);
+                    buckets.put(bucket.minute, bucket);
+                }
+                lastBucket = bucket;
+            }
+            book.dueBucket = bucket;
+            book.previousDue = null;
+            book.nextDue = bucket.head;
+            if (bucket.head != null) {
+                bucket.head.previousDue = book;
+            }
+            bucket.head = book;
+        }
+
+        void remove(Book book) {
+            Bucket bucket = book.dueBucket;
+            if (bucket == null) {
+                return;
+            }
+            if (book.previousDue != null) {
+                book.previousDue.nextDue = book.nextDue;
+            } else {
+                bucket.head = book.nextDue;
+            }
+            if (book.nextDue != null) {
+                book.nextDue.previousDue = book.previousDue;
+            }
+            book.dueBucket = null;
+            book.nextDue = null;
+            book.previousDue = null;
+            if (bucket.head == null && bucket != lastBucket) {
+                buckets.remove(bucket.minute);
+            }
+        }
+
+        void collect(long from, long to, List<Lending> due) {
+            if (from >= to) {
+                return;
+            }
+            long firstMinute = Math.floorDiv(from, BUCKET_MILLIS);
+            long lastMinute = Math.floorDiv(to - 1, BUCKET_MILLIS);
+            for (Bucket bucket : buckets.subMap(firstMinute, true, lastMinute, true).values()) {
+                boolean whole = bucket.minute > firstMinute && bucket.minute < lastMinute;
+                for (Book book = bucket.head; book != null; book = book.nextDue) {
+                    Lending lending = book.getLending();
+                    if (whole) {
+                        due.add(lending);
+                        continue;
+                    }
+                    long dueAt = lending.dueAtMillis();
+                    if (dueAt >= from && dueAt < to) {
+                        due.add(lending);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.adri0.librarian.core;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publishes the changes of a library as `LibraryEvent`s to consumers,
+ * each running on its own thread, until closed. See `Library.streamEvents`.
+ *
+ * Events go through a bounded ring buffer of preallocated events.
+ * Changes publish by claiming the next slot with a compare-and-set,
+ * filling it in and marking it published, without locking nor
+ * allocating. Each consumer follows the ring at its own pace and is
+ * given every event published since its previous batch at once, so a
+ * consumer that falls behind catches up in larger batches.
+ *
+ * A slot is only reused once every consumer is past it. When the ring
+ * is full, changes either wait for the slowest consumer, `Overflow.BLOCK`,
+ * which slows the library down to the pace of its consumers, or go on
+ * without publishing, `Overflow.DROP`, see `getDropped`. Changes of a book
+ * publish while holding the lock of the book, so with `BLOCK`, consumers
+ * must not wait for the library to lend, return, add or remove books.
+ *
+ * If a consumer throws, it stops receiving events and no longer holds
+ * back the ring. If it throws an `Error`, the stream is closed as well,
+ * so changes waiting for room in the ring go on without publishing,
+ * and the error is kept, see `getFailure`.
+ */
+public final class EventStream implements Closeable {
+
+    /**
+     * What to do with a change when the ring is full.
+     */
+    public enum Overflow {
+        BLOCK,
+        DROP
+    }
+
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private final Library library;
+    private final Overflow overflow;
+    private final LibraryEvent[] events;
+    private final int mask;
+
+    /**
+     * Sequence published in each slot, -1 until the first one is.
+     */
+    private final AtomicLongArray published;
+    private final AtomicLong nextSequence;
+    private final LongAdder dropped;
+    private final Subscriber[] subscribers;
+    private final MutationListener listener;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    EventStream(Library library, int capacity, Overflow overflow, LibraryEventConsumer[] consumers) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("the capacity must be within [1, 2^30]");
+        }
+        if (consumers.length == 0) {
+            throw new IllegalArgumentException("at least one consumer is needed");
+        }
+        int slots = Math.max(1, Integer.highestOneBit(capacity - 1) << 1);
+        this.library = library;
+        this.overflow = overflow;
+        this.events = new LibraryEvent[slots];
+        for (int i = 0; i < slots; i++) {
+            events[i] = new LibraryEvent();
+        }
+        this.mask = slots - 1;
+        this.published = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            published.set(i, -1);
+        }
+        this.nextSequence = new AtomicLong();
+        this.dropped = new LongAdder();
+        this.subscribers = new Subscriber[consumers.length];
+        for (int i = 0; i < consumers.length; i++) {
+            subscribers[i] = new Subscriber(consumers[i], "library-events-" + i);
+        }
+        this.listener = new MutationListener() {
+            @Override
+            public void bookAdded(Book book) {
+                publish(LibraryEvent.Type.BOOK_ADDED, book, null, 0, 0);
+            }
+
+            @Override
+            public void bookRemoved(Book book) {
+                publish(LibraryEvent.Type.BOOK_REMOVED, book, null, 0, 0);
+            }
+
+            @Override
+            public void bookLent(Book book) {
+                publish(LibraryEvent.Type.BOOK_LENT, book, book.getBorrower(),
+                        book.lentAtMillis(), book.dueAtMillis());
+            }
+
+            @Override
+            public void bookReturned(Book book, User borrower, long returnedAt) {
+                publish(LibraryEvent.Type.BOOK_RETURNED, book, borrower, returnedAt, 0);
+            }
+        };
+        for (Subscriber subscriber : subscribers) {
+            subscriber.thread.start();
+        }
+        library.addListener(listener);
+    }
+
+    /**
+     * Number of slots of the ring, the capacity rounded up to a power of two.
+     */
+    public int getCapacity() {
+        return events.length;
+    }
+
+    /**
+     * Number of events published so far.
+     */
+    public long getPublished() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Number of changes that weren't published because the ring was full.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * The error a consumer stopped with, which closed the stream, or null.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Stops publishing the changes of the library. Consumers are given
+     * the events already published before their threads stop.
+     */
+    @Override
+    public void close() {
+        library.removeListener(listener);
+        closed = true;
+        for (Subscriber subscriber : subscribers) {
+            try {
+                subscriber.thread.join(60_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void publish(LibraryEvent.Type type, Book book, User user, long time, long dueAt) {
+        long sequence = claim();
+        if (sequence < 0) {
+            dropped.increment();
+            return;
+        }
+        int slot = (int) sequence & mask;
+        events[slot].set(sequence, type, book, user, time, dueAt);
+        published.set(slot, sequence);
+    }
+
+    /**
+     * Claims the next sequence, or returns -1 if the ring is full and
+     * changes are dropped, or once the stream is closed.
+     */
+    private long claim() {
+        int idle = 0;
+        while (true) {
+            if (closed) {
+                return -1;
+            }
+            long sequence = nextSequence.get();
+            if (sequence - events.length > slowestConsumed()) {
+                if (overflow == Overflow.DROP) {
+                    return -1;
+                }
+                idle = idle(idle);
+                continue;
+            }
+            if (nextSequence.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    private long slowestConsumed() {
+        long slowest = Long.MAX_VALUE;
+        for (Subscriber subscriber : subscribers) {
+            slowest = Math.min(slowest, subscriber.consumed);
+        }
+        return slowest;
+    }
+
+    /**
+     * Backs off while waiting: spins first, then yields, then parks.
+     */
+    private static int idle(int idle) {
+        if (idle < SPINS) {
+            return idle + 1;
+        }
+        if (idle < SPINS + YIELDS) {
+            Thread.yield();
+            return idle + 1;
+        }
+        LockSupport.parkNanos(PARK_NANOS);
+        return idle;
+    }
+
+    /**
+     * A consumer following the ring.
+     */
+    private final class Subscriber implements Runnable {
+
+        private final LibraryEventConsumer consumer;
+        private final Thread thread;
+        private final List<LibraryEvent> batch;
+        private final List<LibraryEvent> batchView;
+
+        /**
+         * Last sequence consumed, Long.MAX_VALUE once the consumer failed.
+         */
+        private volatile long consumed;
+
+        Subscriber(LibraryEventConsumer consumer, String name) {
+            this.consumer = consumer;
+            this.batch = new ArrayList<>();
+            this.batchView = Collections.unmodifiableList(batch);
+            this.consumed = -1;
+            this.thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.setUncaughtExceptionHandler((failed, error) -> failure = error);
+        }
+
+        @Override
+        public void run() {
+            boolean completed = false;
+            try {
+                follow();
+                completed = true;
+            } finally {
+                if (!completed) {
+                    consumed = Long.MAX_VALUE;
+                    closed = true;
+                }
+            }
+        }
+
+        private void follow() {
+            long next = 0;
+            int idle = 0;
+            while (true) {
+                // read before the batch, so events published before closing are consumed
+                boolean stopping = closed;
+                batch.clear();
+                for (long sequence = next; batch.size() < events.length; sequence++) {
+                    int slot = (int) sequence & mask;
+                    if (published.get(slot) != sequence) {
+                        break;
+                    }
+                    batch.add(events[slot]);
+                }
+                if (batch.isEmpty()) {
+                    if (stopping) {
+                        return;
+                    }
+                    idle = idle(idle);
+                    continue;
+                }
+                idle = 0;
+                try {
+                    consumer.accept(batchView);
+                } catch (RuntimeException e) {
+                    consumed = Long.MAX_VALUE;
+                    return;
+                }
+                next += batch.size();
+                consumed = next - 1;
+            }
+        }
+    }
+}
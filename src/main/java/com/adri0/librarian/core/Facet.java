@@ -0,0 +1,74 @@
+package com.adri0.librarian.core;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * A field the matches of a query are counted by, see `Query.facetBy`.
+ * Each facet maps a book to a bucket key of type `K`.
+ *
+ * Facets of the title of a book, and availability, can be counted
+ * from the copy counters the library keeps for each title, without
+ * visiting the books. Facets built with `of` visit every match.
+ */
+public final class Facet<K> {
+
+    public static final Facet<String> AUTHOR = new Facet<>("author", Title::getAuthor, null);
+    public static final Facet<Integer> YEAR = new Facet<>("year", Title::getYear, null);
+
+    /**
+     * The first year of the decade a book was published in, 1990 for 1994.
+     */
+    public static final Facet<Integer> DECADE = new Facet<>("decade",
+            title -> Math.floorDiv(title.getYear(), 10) * 10, null);
+
+    /**
+     * Whether a book is available, true, or lent, false.
+     */
+    public static final Facet<Boolean> AVAILABILITY = new Facet<>("availability", null, null);
+
+    private final String name;
+    private final Function<Title, K> ofTitle;
+    private final Function<Book, K> ofBook;
+
+    private Facet(String name, Function<Title, K> ofTitle, Function<Book, K> ofBook) {
+        this.name = name;
+        this.ofTitle = ofTitle;
+        this.ofBook = ofBook;
+    }
+
+    /**
+     * A facet computed from each book. Books it maps to null aren't counted.
+     */
+    public static <K> Facet<K> of(String name, Function<Book, K> key) {
+        return new Facet<>(Objects.requireNonNull(name), null, Objects.requireNonNull(key));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Whether the facet only depends on the title of a book.
+     */
+    boolean onTitle() {
+        return ofTitle != null;
+    }
+
+    boolean isAvailability() {
+        return this == AVAILABILITY;
+    }
+
+    K keyOf(Title title) {
+        return ofTitle.apply(title);
+    }
+
+    K keyOf(Book book) {
+        return ofTitle != null ? ofTitle.apply(book.getTitleObj()) : ofBook.apply(book);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
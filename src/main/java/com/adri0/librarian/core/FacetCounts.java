@@ -0,0 +1,109 @@
+package com.adri0.librarian.core;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Number of matches of a query in each bucket of some facets,
+ * see `Query.facetBy`.
+ */
+public final class FacetCounts {
+
+    private final Facet<?>[] facets;
+    private final List<Map<Object, long[]>> counts;
+    private final Predicate<Book> isAvailable;
+    private long total;
+
+    FacetCounts(Facet<?>[] facets, Predicate<Book> isAvailable) {
+        this.facets = facets;
+        this.counts = new ArrayList<>(facets.length);
+        for (int i = 0; i < facets.length; i++) {
+            counts.add(new HashMap<>());
+        }
+        this.isAvailable = isAvailable;
+    }
+
+    /**
+     * Counts of a facet by bucket key. Keys are in their natural order
+     * if they have one, and otherwise in the order they were first
+     * counted. Buckets without matches are left out.
+     * Throws an IllegalArgumentException if the facet wasn't counted.
+     */
+    @SuppressWarnings("unchecked")
+    public <K> Map<K, Long> get(Facet<K> facet) {
+        for (int i = 0; i < facets.length; i++) {
+            if (facets[i] == facet) {
+                return (Map<K, Long>) sorted(counts.get(i));
+            }
+        }
+        throw new IllegalArgumentException("facet not counted: " + facet);
+    }
+
+    /**
+     * Number of matches counted.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    void add(Book book) {
+        total++;
+        for (int i = 0; i < facets.length; i++) {
+            Object key = facets[i].isAvailability() ? isAvailable.test(book) : facets[i].keyOf(book);
+            add(i, key, 1);
+        }
+    }
+
+    /**
+     * Adds the available and lent copies of a title at once.
+     */
+    void add(Title title, long available, long lent) {
+        total += available + lent;
+        for (int i = 0; i < facets.length; i++) {
+            if (facets[i].isAvailability()) {
+                add(i, Boolean.TRUE, available);
+                add(i, Boolean.FALSE, lent);
+            } else {
+                add(i, facets[i].keyOf(title), available + lent);
+            }
+        }
+    }
+
+    private void add(int facet, Object key, long count) {
+        if (key != null && count > 0) {
+            counts.get(facet).computeIfAbsent(key, k -> new long[1])[0] += count;
+        }
+    }
+
+    FacetCounts merge(FacetCounts other) {
+        total += other.total;
+        for (int i = 0; i < facets.length; i++) {
+            for (Map.Entry<Object, long[]> entry : other.counts.get(i).entrySet()) {
+                add(i, entry.getKey(), entry.getValue()[0]);
+            }
+        }
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Object, Long> sorted(Map<Object, long[]> buckets) {
+        List<Object> keys = new ArrayList<>(buckets.keySet());
+        if (keys.stream().allMatch(key -> key instanceof Comparable)) {
+            keys.sort((a, b) -> ((Comparable<Object>) a).compareTo(b));
+        }
+        Map<Object, Long> sorted = new LinkedHashMap<>();
+        for (Object key : keys) {
+            sorted.put(key, buckets.get(key)[0]);
+        }
+        return Collections.unmodifiableMap(sorted);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder("FacetCounts{total=").append(total);
+        for (int i = 0; i < facets.length; i++) {
+            description.append(", ").append(facets[i]).append('=').append(sorted(counts.get(i)));
+        }
+        return description.append('}').toString();
+    }
+}
@@ -0,0 +1,265 @@
+package com.adri0.librarian.core;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Set of dense, non-negative int ids, such as bookIds, kept as a bitmap.
+ *
+ * Bits are kept in fixed size pages of words, allocated the first time
+ * one of their ids is set, like the pages of `IdTable`. Words are updated
+ * atomically, so ids sharing a word can be set and cleared concurrently.
+ * Reads don't lock.
+ *
+ * Like an `IdTable`, the set can be frozen into a read-only copy sharing
+ * its pages, which are copied when next written.
+ */
+class IdBitSet {
+
+    private static final int PAGE_WORDS = 64;
+    private static final int PAGE_BITS = 12;
+
+    private volatile AtomicLongArray[] pages;
+
+    /**
+     * Pages of the last frozen copy, written to only once copied.
+     */
+    private volatile AtomicLongArray[] frozen;
+
+    IdBitSet() {
+        this(new AtomicLongArray[16]);
+    }
+
+    private IdBitSet(AtomicLongArray[] pages) {
+        this.pages = pages;
+        this.frozen = new AtomicLongArray[0];
+    }
+
+    boolean get(int id) {
+        if (id < 0) {
+            return false;
+        }
+        AtomicLongArray[] pages = this.pages;
+        int pageIndex = id >>> PAGE_BITS;
+        if (pageIndex >= pages.length || pages[pageIndex] == null) {
+            return false;
+        }
+        return (pages[pageIndex].get((id >>> 6) & (PAGE_WORDS - 1)) & (1L << id)) != 0;
+    }
+
+    void set(int id) {
+        AtomicLongArray page = pageForWrite(id);
+        int word = (id >>> 6) & (PAGE_WORDS - 1);
+        long bit = 1L << id;
+        long current;
+        do {
+            current = page.get(word);
+        } while ((current & bit) == 0 && !page.compareAndSet(word, current, current | bit));
+    }
+
+    void clear(int id) {
+        AtomicLongArray[] pages = this.pages;
+        int pageIndex = id >>> PAGE_BITS;
+        if (id < 0 || pageIndex >= pages.length || pages[pageIndex] == null) {
+            return;
+        }
+        AtomicLongArray page = pageForWrite(id);
+        int word = (id >>> 6) & (PAGE_WORDS - 1);
+        long bit = 1L << id;
+        long current;
+        do {
+            current = page.get(word);
+        } while ((current & bit) != 0 && !page.compareAndSet(word, current, current & ~bit));
+    }
+
+    /**
+     * Counts the ids in the set.
+     */
+    long cardinality() {
+        long cardinality = 0;
+        for (AtomicLongArray page : pages) {
+            if (page != null) {
+                for (int word = 0; word < PAGE_WORDS; word++) {
+                    cardinality += Long.bitCount(page.get(word));
+                }
+            }
+        }
+        return cardinality;
+    }
+
+    /**
+     * Streams the ids in this set, in increasing order.
+     */
+    IntStream stream(boolean parallel) {
+        return andNot(null, parallel);
+    }
+
+    /**
+     * Streams the ids in this set but not in the other set, in increasing
+     * order, combining both sets a word at a time. Changes made while the
+     * stream is consumed may or may not be seen.
+     */
+    IntStream andNot(IdBitSet other, boolean parallel) {
+        AtomicLongArray[] pages = this.pages;
+        AtomicLongArray[] otherPages = other != null ? other.pages : new AtomicLongArray[0];
+        return StreamSupport.intStream(new WordSpliterator(pages, otherPages, 0, pages.length), parallel);
+    }
+
+    /**
+     * Returns a copy of the set as it is now, which no later change
+     * reaches. The caller must keep the set from changing meanwhile,
+     * and must not change the copy.
+     */
+    synchronized IdBitSet freeze() {
+        AtomicLongArray[] pages = this.pages;
+        frozen = pages;
+        return new IdBitSet(pages);
+    }
+
+    /**
+     * Whether the set changed since the given copy was frozen.
+     * Every page is frozen then, so any change replaces the pages.
+     */
+    boolean changedSince(IdBitSet copy) {
+        return pages != copy.pages;
+    }
+
+    private AtomicLongArray pageForWrite(int id) {
+        AtomicLongArray[] pages = this.pages;
+        int pageIndex = id >>> PAGE_BITS;
+        if (id >= 0 && pageIndex < pages.length && pages[pageIndex] != null && !isFrozen(pageIndex, pages[pageIndex])) {
+            return pages[pageIndex];
+        }
+        return allocatePage(id);
+    }
+
+    private boolean isFrozen(int pageIndex, AtomicLongArray page) {
+        AtomicLongArray[] frozen = this.frozen;
+        return pageIndex < frozen.length && frozen[pageIndex] == page;
+    }
+
+    /**
+     * Allocates the page of an id, or copies it if it is frozen.
+     */
+    private synchronized AtomicLongArray allocatePage(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("ids must not be negative: " + id);
+        }
+        int pageIndex = id >>> PAGE_BITS;
+        AtomicLongArray[] pages = this.pages;
+        if (pageIndex >= pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(pages.length * 2, pageIndex + 1));
+        }
+        if (pages[pageIndex] == null || isFrozen(pageIndex, pages[pageIndex])) {
+            if (pages == this.pages) {
+                pages = pages.clone();
+            }
+            pages[pageIndex] = pages[pageIndex] == null ? new AtomicLongArray(PAGE_WORDS) : copy(pages[pageIndex]);
+        }
+        if (pages != this.pages) {
+            this.pages = pages;
+        }
+        return pages[pageIndex];
+    }
+
+    private static AtomicLongArray copy(AtomicLongArray page) {
+        long[] words = new long[PAGE_WORDS];
+        for (int word = 0; word < PAGE_WORDS; word++) {
+            words[word] = page.get(word);
+        }
+        return new AtomicLongArray(words);
+    }
+
+    /**
+     * Visits the ids of `pages` minus `excluded` over a range of pages,
+     * a word at a time.
+     */
+    private static class WordSpliterator implements Spliterator.OfInt {
+
+        private final AtomicLongArray[] pages;
+        private final AtomicLongArray[] excluded;
+        private int pageIndex;
+        private final int endPage;
+        private int wordIndex;
+        private long word;
+
+        WordSpliterator(AtomicLongArray[] pages, AtomicLongArray[] excluded, int pageIndex, int endPage) {
+            this.pages = pages;
+            this.excluded = excluded;
+            this.pageIndex = pageIndex;
+            this.endPage = endPage;
+            this.wordIndex = -1;
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            while (word == 0) {
+                if (!nextWord()) {
+                    return false;
+                }
+            }
+            int bit = Long.numberOfTrailingZeros(word);
+            word &= word - 1;
+            action.accept((pageIndex << PAGE_BITS) + (wordIndex << 6) + bit);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            do {
+                while (word != 0) {
+                    int bit = Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    action.accept((pageIndex << PAGE_BITS) + (wordIndex << 6) + bit);
+                }
+            } while (nextWord());
+        }
+
+        /**
+         * Loads the next word of the range, returns false past the end.
+         */
+        private boolean nextWord() {
+            while (pageIndex < endPage) {
+                AtomicLongArray page = pages[pageIndex];
+                if (page != null && ++wordIndex < PAGE_WORDS) {
+                    AtomicLongArray excludedPage = pageIndex < excluded.length ? excluded[pageIndex] : null;
+                    word = page.get(wordIndex) & ~(excludedPage != null ? excludedPage.get(wordIndex) : 0);
+                    return true;
+                }
+                pageIndex++;
+                wordIndex = -1;
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            int remainingPages = endPage - pageIndex;
+            if (remainingPages < 2) {
+                return null;
+            }
+            int middle = pageIndex + remainingPages / 2;
+            WordSpliterator prefix = new WordSpliterator(pages, excluded, pageIndex, middle);
+            prefix.wordIndex = wordIndex;
+            prefix.word = word;
+            pageIndex = middle;
+            wordIndex = -1;
+            word = 0;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return (long) (endPage - pageIndex) << PAGE_BITS;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | NONNULL;
+        }
+    }
+}
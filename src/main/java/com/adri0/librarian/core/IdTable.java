@@ -0,0 +1,420 @@
+package com.adri0.librarian.core;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Table of values indexed by a dense, non-negative int id, such as the
+ * bookIds generated by the library. Lookups index straight into fixed
+ * size pages, so they neither box the id nor allocate.
+ *
+ * Pages are allocated the first time one of their ids is stored.
+ * Reads don't lock. Writes of the same id must be serialized by the
+ * caller, which the library does with the book's lock stripe.
+ *
+ * `freeze` takes a read-only copy of the table in constant time: both
+ * share their pages, and the pages of the copy are frozen, so the next
+ * write to one copies it first.
+ */
+class IdTable<V> {
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private volatile Page<V>[] pages;
+    private final AtomicInteger size;
+
+    /**
+     * Pages of the last frozen copy, written to only once copied.
+     */
+    private volatile Page<V>[] frozen;
+
+    IdTable() {
+        this(newPages(16), 0);
+    }
+
+    private IdTable(Page<V>[] pages, int size) {
+        this.pages = pages;
+        this.size = new AtomicInteger(size);
+        this.frozen = newPages(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Page<V>[] newPages(int length) {
+        return (Page<V>[]) new Page<?>[length];
+    }
+
+    V get(int id) {
+        if (id < 0) {
+            return null;
+        }
+        Page<V>[] pages = this.pages;
+        int pageIndex = id >>> PAGE_BITS;
+        if (pageIndex >= pages.length) {
+            return null;
+        }
+        Page<V> page = pages[pageIndex];
+        return page != null ? page.slots.get(id & PAGE_MASK) : null;
+    }
+
+    boolean contains(int id) {
+        return get(id) != null;
+    }
+
+    /**
+     * Stores a value and returns the one previously stored for the id.
+     */
+    V put(int id, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null values are not stored");
+        }
+        Page<V> page = pageForWrite(id);
+        V previous = page.slots.getAndSet(id & PAGE_MASK, value);
+        if (previous == null) {
+            page.count.incrementAndGet();
+            size.incrementAndGet();
+        }
+        return previous;
+    }
+
+    /**
+     * Stores a value unless the id already has one, atomically, and
+     * returns the value stored for the id. Unlike the other writes,
+     * it needs no serialization by the caller, nor does `remove(id, value)`.
+     */
+    V putIfAbsent(int id, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null values are not stored");
+        }
+        while (true) {
+            Page<V> page = pageForWrite(id);
+            if (page.slots.compareAndSet(id & PAGE_MASK, null, value)) {
+                page.count.incrementAndGet();
+                size.incrementAndGet();
+            }
+            // the page may have been frozen and copied meanwhile, then the copy is written again
+            if (pages[id >>> PAGE_BITS] == page) {
+                return page.slots.get(id & PAGE_MASK);
+            }
+        }
+    }
+
+    V remove(int id) {
+        Page<V>[] pages = this.pages;
+        int pageIndex = id >>> PAGE_BITS;
+        if (id < 0 || pageIndex >= pages.length || pages[pageIndex] == null) {
+            return null;
+        }
+        Page<V> page = pageForWrite(id);
+        V previous = page.slots.getAndSet(id & PAGE_MASK, null);
+        if (previous != null) {
+            page.count.decrementAndGet();
+            size.decrementAndGet();
+        }
+        return previous;
+    }
+
+    /**
+     * Removes the value of an id only if it is the given one, atomically.
+     */
+    boolean remove(int id, V value) {
+        Page<V>[] pages = this.pages;
+        int pageIndex = id >>> PAGE_BITS;
+        if (id < 0 || pageIndex >= pages.length || pages[pageIndex] == null) {
+            return false;
+        }
+        boolean removed = false;
+        while (true) {
+            Page<V> page = pageForWrite(id);
+            if (page.slots.compareAndSet(id & PAGE_MASK, value, null)) {
+                page.count.decrementAndGet();
+                size.decrementAndGet();
+                removed = true;
+            }
+            if (this.pages[pageIndex] == page) {
+                return removed;
+            }
+        }
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the value at a position in id order, skipping whole pages
+     * by their counts. Only meant for a frozen copy, whose counts
+     * don't change.
+     */
+    V valueAt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+        }
+        int remaining = index;
+        for (Page<V> page : pages) {
+            if (page == null) {
+                continue;
+            }
+            int count = page.count.get();
+            if (remaining >= count) {
+                remaining -= count;
+                continue;
+            }
+            for (int slot = 0; slot < PAGE_SIZE; slot++) {
+                V value = page.slots.get(slot);
+                if (value != null && remaining-- == 0) {
+                    return value;
+                }
+            }
+        }
+        throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+    }
+
+    /**
+     * Returns a copy of the table as it is now, which no later change
+     * reaches. The caller must keep the table from changing meanwhile,
+     * and must not change the copy.
+     */
+    synchronized IdTable<V> freeze() {
+        Page<V>[] pages = this.pages;
+        frozen = pages;
+        return new IdTable<>(pages, size.get());
+    }
+
+    /**
+     * Whether the table changed since the given copy was frozen.
+     * Every page is frozen then, so any change replaces the pages.
+     */
+    boolean changedSince(IdTable<V> copy) {
+        return pages != copy.pages;
+    }
+
+    /**
+     * A view of the stored values in id order. Iteration skips empty pages
+     * and sees a weakly consistent state under concurrent changes.
+     * Its spliterator splits the ids into ranges of pages, so parallel
+     * streams divide the table evenly.
+     */
+    AbstractCollection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new ValueIterator();
+            }
+
+            @Override
+            public Spliterator<V> spliterator() {
+                Page<V>[] pages = IdTable.this.pages;
+                return new RangeSpliterator(pages, 0, pages.length);
+            }
+
+            @Override
+            public int size() {
+                return IdTable.this.size();
+            }
+        };
+    }
+
+    /**
+     * Allocates the pages for all ids up to the given one,
+     * ahead of storing many values.
+     */
+    synchronized void reserve(int maxId) {
+        int lastPage = maxId >>> PAGE_BITS;
+        Page<V>[] pages = this.pages;
+        if (lastPage >= pages.length) {
+            pages = Arrays.copyOf(pages, lastPage + 1);
+        } else {
+            pages = pages.clone();
+        }
+        for (int pageIndex = 0; pageIndex <= lastPage; pageIndex++) {
+            if (pages[pageIndex] == null) {
+                pages[pageIndex] = new Page<>();
+            }
+        }
+        this.pages = pages;
+    }
+
+    private Page<V> pageForWrite(int id) {
+        Page<V>[] pages = this.pages;
+        int pageIndex = id >>> PAGE_BITS;
+        if (id >= 0 && pageIndex < pages.length && pages[pageIndex] != null && !isFrozen(pageIndex, pages[pageIndex])) {
+            return pages[pageIndex];
+        }
+        return allocatePage(id);
+    }
+
+    private boolean isFrozen(int pageIndex, Page<V> page) {
+        Page<V>[] frozen = this.frozen;
+        return pageIndex < frozen.length && frozen[pageIndex] == page;
+    }
+
+    /**
+     * Allocates the page of an id, or copies it if it is frozen.
+     */
+    private synchronized Page<V> allocatePage(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("ids must not be negative: " + id);
+        }
+        int pageIndex = id >>> PAGE_BITS;
+        Page<V>[] pages = this.pages;
+        if (pageIndex >= pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(pages.length * 2, pageIndex + 1));
+        }
+        if (pages[pageIndex] == null || isFrozen(pageIndex, pages[pageIndex])) {
+            if (pages == this.pages) {
+                pages = pages.clone();
+            }
+            pages[pageIndex] = pages[pageIndex] == null ? new Page<>() : new Page<>(pages[pageIndex]);
+        }
+        if (pages != this.pages) {
+            this.pages = pages;
+        }
+        return pages[pageIndex];
+    }
+
+    private static class Page<V> {
+        final AtomicReferenceArray<V> slots;
+        final AtomicInteger count;
+
+        Page() {
+            this.slots = new AtomicReferenceArray<>(PAGE_SIZE);
+            this.count = new AtomicInteger();
+        }
+
+        /**
+         * Copies a page. Its count is taken from the values copied, as
+         * an unserialized write may be changing the page meanwhile.
+         */
+        Page(Page<V> page) {
+            this.slots = new AtomicReferenceArray<>(PAGE_SIZE);
+            int count = 0;
+            for (int slot = 0; slot < PAGE_SIZE; slot++) {
+                V value = page.slots.get(slot);
+                if (value != null) {
+                    slots.lazySet(slot, value);
+                    count++;
+                }
+            }
+            this.count = new AtomicInteger(count);
+        }
+    }
+
+    /**
+     * Visits the values of a range of pages, from `pageIndex` to `endPage`.
+     */
+    private class RangeSpliterator implements Spliterator<V> {
+
+        private final Page<V>[] pages;
+        private int pageIndex;
+        private int slot;
+        private final int endPage;
+
+        RangeSpliterator(Page<V>[] pages, int pageIndex, int endPage) {
+            this.pages = pages;
+            this.pageIndex = pageIndex;
+            this.endPage = endPage;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super V> action) {
+            while (pageIndex < endPage) {
+                Page<V> page = pages[pageIndex];
+                if (page != null && page.count.get() > 0) {
+                    while (slot < PAGE_SIZE) {
+                        V value = page.slots.get(slot++);
+                        if (value != null) {
+                            action.accept(value);
+                            return true;
+                        }
+                    }
+                }
+                pageIndex++;
+                slot = 0;
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<V> trySplit() {
+            int remainingPages = endPage - pageIndex;
+            if (remainingPages < 2) {
+                return null;
+            }
+            int middle = pageIndex + remainingPages / 2;
+            RangeSpliterator prefix = new RangeSpliterator(pages, pageIndex, middle);
+            prefix.slot = slot;
+            pageIndex = middle;
+            slot = 0;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            long size = 0;
+            for (int i = pageIndex; i < endPage; i++) {
+                if (pages[i] != null) {
+                    size += pages[i].count.get();
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | CONCURRENT;
+        }
+    }
+
+    private class ValueIterator implements Iterator<V> {
+
+        private final Page<V>[] pages = IdTable.this.pages;
+        private int pageIndex;
+        private int slot;
+        private V next;
+
+        ValueIterator() {
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            V value = next;
+            advance();
+            return value;
+        }
+
+        private void advance() {
+            next = null;
+            while (pageIndex < pages.length) {
+                Page<V> page = pages[pageIndex];
+                if (page != null && page.count.get() > 0) {
+                    while (slot < PAGE_SIZE) {
+                        V value = page.slots.get(slot++);
+                        if (value != null) {
+                            next = value;
+                            return;
+                        }
+                    }
+                }
+                pageIndex++;
+                slot = 0;
+            }
+        }
+    }
+}
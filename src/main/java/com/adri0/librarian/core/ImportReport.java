@@ -0,0 +1,49 @@
+package com.adri0.librarian.core;
+
+import java.time.Duration;
+
+/**
+ * Summary of a bulk import of books into the library.
+ * See `Library.importBooks`.
+ */
+public class ImportReport {
+
+    private final long booksAdded;
+    private final int titles;
+    private final Duration elapsed;
+
+    ImportReport(long booksAdded, int titles, Duration elapsed) {
+        this.booksAdded = booksAdded;
+        this.titles = titles;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * Number of book copies added.
+     */
+    public long getBooksAdded() {
+        return booksAdded;
+    }
+
+    /**
+     * Number of distinct titles among the imported books.
+     */
+    public int getTitles() {
+        return titles;
+    }
+
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    public double booksPerSecond() {
+        long nanos = Math.max(1, elapsed.toNanos());
+        return booksAdded * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ImportReport{booksAdded=%d, titles=%d, elapsed=%dms, booksPerSecond=%.0f}",
+                booksAdded, titles, elapsed.toMillis(), booksPerSecond());
+    }
+}
@@ -0,0 +1,160 @@
+package com.adri0.librarian.core;
+
+import javax.management.*;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Publishes the gauges of a library, and its metrics if they are kept
+ * by a `MetricsRecorder`, as the attributes of an MBean of the platform
+ * MBean server, until closed.
+ *
+ * Gauges are the numbers of books, titles, lent books, users and
+ * lendings in the history. For each operation there are its count,
+ * mean, median, 99th and 99.9th percentiles and max latency in
+ * nanoseconds, for instance `LendCount` or `QueryP99Nanos`, and for
+ * queries the total and mean books scanned and returned. Attributes
+ * are read when asked for, exporting costs nothing meanwhile.
+ */
+public final class JmxExporter implements DynamicMBean, Closeable {
+
+    static final String DOMAIN = "com.adri0.librarian";
+
+    private final ObjectName name;
+    private final Map<String, Supplier<Object>> attributes;
+    private final MBeanInfo info;
+
+    private JmxExporter(Library library, ObjectName name) {
+        this.name = name;
+        this.attributes = new LinkedHashMap<>();
+        List<MBeanAttributeInfo> infos = new ArrayList<>();
+        gauge(infos, "Books", "Books in the library", () -> (long) library.totalBooks());
+        gauge(infos, "Titles", "Distinct titles in the catalog", () -> (long) library.totalTitles());
+        gauge(infos, "LentBooks", "Books currently lent", () -> (long) library.lentBookCount());
+        gauge(infos, "Users", "Registered users", () -> (long) library.userCount());
+        gauge(infos, "HistoryLendings", "Lendings recorded in the history",
+                () -> (long) library.lendingHistory().size());
+        if (library.metrics() instanceof MetricsRecorder) {
+            MetricsRecorder metrics = (MetricsRecorder) library.metrics();
+            for (LibraryMetrics.Operation operation : LibraryMetrics.Operation.values()) {
+                histogram(infos, attributeName(operation), "Latency of " + operation,
+                        "Nanos", metrics.getLatencies(operation));
+            }
+            histogram(infos, "QueryRowsScanned", "Books examined per query", "", metrics.getRowsScanned());
+            histogram(infos, "QueryRowsReturned", "Books returned per query", "", metrics.getRowsReturned());
+        }
+        this.info = new MBeanInfo(JmxExporter.class.getName(), "Metrics of a library",
+                infos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+
+    /**
+     * Registers the MBean of a library in the platform MBean server, as
+     * `com.adri0.librarian:type=Library,name=<name>`.
+     */
+    public static JmxExporter register(Library library, String name) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=Library,name=" + ObjectName.quote(name));
+            JmxExporter exporter = new JmxExporter(library, objectName);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(exporter, objectName);
+            return exporter;
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register the metrics of library " + name, e);
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return name;
+    }
+
+    /**
+     * Unregisters the MBean.
+     */
+    @Override
+    public void close() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (InstanceNotFoundException e) {
+            // already unregistered
+        } catch (MBeanRegistrationException e) {
+            throw new IllegalStateException("cannot unregister " + name, e);
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Supplier<Object> value = attributes.get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value.get();
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        AttributeList list = new AttributeList();
+        for (String attribute : names) {
+            Supplier<Object> value = attributes.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value.get()));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("attributes are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList list) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(action));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return info;
+    }
+
+    private void gauge(List<MBeanAttributeInfo> infos, String name, String description, Supplier<Object> value) {
+        attributes.put(name, value);
+        infos.add(new MBeanAttributeInfo(name, Long.class.getName(), description, true, false, false));
+    }
+
+    private void histogram(List<MBeanAttributeInfo> infos, String prefix, String description,
+                           String unit, Histogram histogram) {
+        gauge(infos, prefix + "Count", description + ", count", histogram::getCount);
+        if (unit.isEmpty()) {
+            gauge(infos, prefix + "Total", description + ", total", histogram::getSum);
+        }
+        attributes.put(prefix + "Mean" + unit, histogram::getMean);
+        infos.add(new MBeanAttributeInfo(prefix + "Mean" + unit, Double.class.getName(),
+                description + ", mean", true, false, false));
+        gauge(infos, prefix + "P50" + unit, description + ", median", () -> histogram.getValueAtPercentile(50));
+        gauge(infos, prefix + "P99" + unit, description + ", 99th percentile", () -> histogram.getValueAtPercentile(99));
+        gauge(infos, prefix + "P999" + unit, description + ", 99.9th percentile",
+                () -> histogram.getValueAtPercentile(99.9));
+        gauge(infos, prefix + "Max" + unit, description + ", max", histogram::getMax);
+    }
+
+    /**
+     * LEND_BATCH becomes LendBatch.
+     */
+    private static String attributeName(LibraryMetrics.Operation operation) {
+        StringBuilder name = new StringBuilder();
+        for (String word : operation.name().split("_")) {
+            name.append(word.charAt(0)).append(word.substring(1).toLowerCase());
+        }
+        return name.toString();
+    }
+}
@@ -2,29 +2,53 @@ package com.adri0.librarian.core;
 
 import java.time.LocalDateTime;
 
+import static com.adri0.librarian.core.LendingHistory.NOT_RETURNED;
+import static com.adri0.librarian.core.LendingHistory.toDateTime;
+import static com.adri0.librarian.core.LendingHistory.toMillis;
 import static java.time.format.DateTimeFormatter.ISO_DATE_TIME;
 
 /**
  * Represents all information of a lending process.
  * Think of it as a lending receipt, or a lending
  * record. It shows which copy of a book is being lend by whom,
- * when it has been lend and, if returned, when.
+ * when it has been lend, when it is due and, if returned, when.
  *
- * returnedAt is only set when the `finish` method has been called.
- * The `finish` method is not public, so it can only be called
- * by the `Library`.
+ * returnedAt is only set when the book is returned, either by the
+ * `finish` method or by the `Library`. Neither is public, so only the
+ * `Library` returns books.
+ *
+ * Timestamps are kept as milliseconds of local time, like the lending
+ * history keeps them, and only turned into `LocalDateTime` when asked for.
  */
 public class Lending {
 
     private final Book book;
     private final User user;
-    private final LocalDateTime lentAt;
-    private LocalDateTime returnedAt;
+    private final long lentAt;
+    private final long dueAt;
+    private volatile long returnedAt;
+
+    /**
+     * Row of this lending in the library's lending history,
+     * or -1 if it isn't recorded in a history.
+     */
+    private final int historyRow;
 
     Lending(Book book, User user) {
+        this(book, user, toMillis(LocalDateTime.now()));
+    }
+
+    Lending(Book book, User user, long lentAt) {
+        this(book, user, lentAt, lentAt + Library.DEFAULT_LOAN_PERIOD.toMillis(), NOT_RETURNED, -1);
+    }
+
+    Lending(Book book, User user, long lentAt, long dueAt, long returnedAt, int historyRow) {
         this.book = book;
         this.user = user;
-        this.lentAt = LocalDateTime.now();
+        this.lentAt = lentAt;
+        this.dueAt = dueAt;
+        this.returnedAt = returnedAt;
+        this.historyRow = historyRow;
     }
 
     public Book getBook() {
@@ -36,7 +60,18 @@ public class Lending {
     }
 
     public LocalDateTime getLentAt() {
-        return lentAt;
+        return toDateTime(lentAt);
+    }
+
+    public LocalDateTime getDueAt() {
+        return toDateTime(dueAt);
+    }
+
+    /**
+     * True if the book hasn't been returned and it was due before `now`.
+     */
+    public boolean isOverdue(LocalDateTime now) {
+        return returnedAt == NOT_RETURNED && dueAt < toMillis(now);
     }
 
     public Title getBookTitle() {
@@ -44,12 +79,40 @@ public class Lending {
     }
 
     public LocalDateTime getReturnedAt() {
+        long returnedAt = this.returnedAt;
+        return returnedAt != NOT_RETURNED ? toDateTime(returnedAt) : null;
+    }
+
+    long lentAtMillis() {
+        return lentAt;
+    }
+
+    long dueAtMillis() {
+        return dueAt;
+    }
+
+    /**
+     * When the book was returned, or `NOT_RETURNED`.
+     */
+    long returnedAtMillis() {
         return returnedAt;
     }
 
+    int getHistoryRow() {
+        return historyRow;
+    }
+
     void finish() {
-        returnedAt = LocalDateTime.now();
-        book.returnBook();
+        finish(toMillis(LocalDateTime.now()));
+    }
+
+    void finish(long returnedAt) {
+        this.returnedAt = returnedAt;
+        book.returnBook(returnedAt);
+    }
+
+    void returned(long returnedAt) {
+        this.returnedAt = returnedAt;
     }
 
     @Override
@@ -58,8 +121,9 @@ public class Lending {
                 "\n\tbookId=" + book.getId() +
                 ",\n\t" + book.getTitleObj() +
                 ",\n\tuser=" + user +
-                ",\n\tlentAt=" + ISO_DATE_TIME.format(lentAt) +
-                ",\n\treturnedAt=" + (returnedAt != null ? ISO_DATE_TIME.format(returnedAt) : "null") +
+                ",\n\tlentAt=" + ISO_DATE_TIME.format(getLentAt()) +
+                ",\n\tdueAt=" + ISO_DATE_TIME.format(getDueAt()) +
+                ",\n\treturnedAt=" + (returnedAt != NOT_RETURNED ? ISO_DATE_TIME.format(getReturnedAt()) : "null") +
                 "\n}";
     }
 }
@@ -0,0 +1,578 @@
+package com.adri0.librarian.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * History of all lendings performed, both active and past, kept in columns.
+ *
+ * Each lending is a row of primitive columns: bookId, userId, when it was
+ * lent, when it is due and when it was returned, as milliseconds, plus the
+ * previous row of the same book and of the same user. Those two columns chain
+ * the lendings of a book or user together, so they are found without
+ * scanning the history.
+ * Users are kept by their `User.getId()` and looked up among the users
+ * registered in the library.
+ *
+ * Rows are stored in segments of a fixed number of rows. Only a bounded number
+ * of segments are kept on the heap. Older full segments are spilled into
+ * memory-mapped files when a spill directory is given and dropped otherwise,
+ * so the history of a library always has a bounded heap footprint.
+ * A dropped segment is reused for the next rows, so a bounded history is
+ * a ring of segments that doesn't allocate once it's full.
+ *
+ * Rows are appended and updated while holding the history's monitor, and
+ * published through volatile fields, so queries don't block lendings.
+ * Readers validate the rows they read against `recycling`, so rows of
+ * a segment reused meanwhile are taken as dropped.
+ * Lendings are handed out as `Lending` views built from their rows.
+ */
+class LendingHistory {
+
+    static final int SEGMENT_ROWS = 1 << 16;
+    static final int UNLIMITED_SEGMENTS = Integer.MAX_VALUE;
+
+    static final long NOT_RETURNED = Long.MIN_VALUE;
+    private static final int NO_ROW = -1;
+
+    /**
+     * Visits the rows of the history.
+     */
+    interface RowVisitor {
+        void visit(int row, int bookId, User user, long lentAt, long dueAt, long returnedAt);
+    }
+
+    private final int segmentsInMemory;
+    private final Path spillDirectory;
+    private final IntFunction<Book> liveBooks;
+    private final IntFunction<User> users;
+
+    /**
+     * Segments indexed by row / SEGMENT_ROWS. Dropped segments are null.
+     */
+    private volatile Segment[] segments;
+    private volatile int firstSegment;
+    private volatile int size;
+
+    /**
+     * Write locked while a dropped segment is reused for new rows.
+     */
+    private final StampedLock recycling;
+
+    /**
+     * Last row of each book and user, indexed by their ids.
+     * Guarded by `this`.
+     */
+    private int[] lastRowOfBook;
+    private int[] lastRowOfUser;
+
+    /**
+     * Removed books that have lendings in the history,
+     * so their lendings can still be shown. A book is forgotten
+     * once its last lending is dropped from the history.
+     * Guarded by `this`.
+     */
+    private final Map<Integer, Book> removedBooks;
+
+    LendingHistory(int segmentsInMemory, Path spillDirectory, IntFunction<Book> liveBooks,
+                   IntFunction<User> users) {
+        if (segmentsInMemory < 1) {
+            throw new IllegalArgumentException("at least one history segment must be kept in memory");
+        }
+        this.segmentsInMemory = segmentsInMemory;
+        this.spillDirectory = spillDirectory;
+        this.liveBooks = liveBooks;
+        this.users = users;
+        this.segments = new Segment[16];
+        this.lastRowOfBook = emptyRows(1024);
+        this.lastRowOfUser = emptyRows(64);
+        this.removedBooks = new HashMap<>();
+        this.recycling = new StampedLock();
+    }
+
+    static long toMillis(LocalDateTime timestamp) {
+        return timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    static LocalDateTime toDateTime(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000),
+                (int) Math.floorMod(millis, 1000) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    /**
+     * Appends a new active lending and returns its row.
+     */
+    synchronized int append(int bookId, User user, long lentAt, long dueAt) {
+        int row = size;
+        if (row == Integer.MAX_VALUE) {
+            throw new IllegalStateException("lending history is full");
+        }
+        int userId = user.getId();
+        lastRowOfBook = ensureCapacity(lastRowOfBook, bookId);
+        lastRowOfUser = ensureCapacity(lastRowOfUser, userId);
+
+        Segment segment = segmentForAppend(row);
+        int offset = row & (SEGMENT_ROWS - 1);
+        segment.write(offset, bookId, userId, lentAt, dueAt, NOT_RETURNED,
+                lastRowOfBook[bookId], lastRowOfUser[userId]);
+        lastRowOfBook[bookId] = row;
+        lastRowOfUser[userId] = row;
+        size = row + 1;
+        return row;
+    }
+
+    synchronized void returned(int row, long returnedAt) {
+        Segment segment = segmentOf(row);
+        if (segment != null) {
+            segment.setReturnedAt(row & (SEGMENT_ROWS - 1), returnedAt);
+        }
+    }
+
+    /**
+     * Keeps a removed book, if it has retained lendings, so they can still be shown.
+     */
+    synchronized void retire(Book book) {
+        int bookId = book.getId();
+        if (bookId < lastRowOfBook.length && lastRowOfBook[bookId] >= firstSegment * SEGMENT_ROWS) {
+            removedBooks.put(bookId, book);
+        }
+    }
+
+    /**
+     * Number of rows retained by the history.
+     */
+    int size() {
+        return size - firstSegment * SEGMENT_ROWS;
+    }
+
+    /**
+     * Lendings of a book, from the oldest to the most recent.
+     */
+    List<Lending> ofBook(int bookId) {
+        int row;
+        synchronized (this) {
+            row = bookId >= 0 && bookId < lastRowOfBook.length ? lastRowOfBook[bookId] : NO_ROW;
+        }
+        return chain(row, true);
+    }
+
+    /**
+     * Lendings of a user, from the oldest to the most recent.
+     */
+    List<Lending> ofUser(User user) {
+        int row;
+        synchronized (this) {
+            int userId = user.getId();
+            row = userId < lastRowOfUser.length ? lastRowOfUser[userId] : NO_ROW;
+        }
+        return chain(row, false);
+    }
+
+    /**
+     * Follows the rows of a book or of a user back from the given row,
+     * until the first row that isn't retained.
+     */
+    private List<Lending> chain(int row, boolean ofBook) {
+        List<Lending> lendings = new ArrayList<>();
+        Segment segment;
+        while ((segment = segmentOf(row)) != null) {
+            long stamp = recycling.tryOptimisticRead();
+            if (segment.index != row / SEGMENT_ROWS) {
+                break;
+            }
+            int offset = row & (SEGMENT_ROWS - 1);
+            Lending lending = view(row, segment, offset);
+            int previous = ofBook ? segment.previousOfBook(offset) : segment.previousOfUser(offset);
+            if (!recycling.validate(stamp)) {
+                continue;
+            }
+            lendings.add(lending);
+            row = previous;
+        }
+        Collections.reverse(lendings);
+        return lendings;
+    }
+
+    /**
+     * Lendings that started within [from, to), in the order they were recorded.
+     * Segments whose lendings all started outside the range are skipped.
+     */
+    List<Lending> between(long from, long to) {
+        List<Lending> lendings = new ArrayList<>();
+        int end = size;
+        Segment[] segments = this.segments;
+        for (int s = firstSegment; s * SEGMENT_ROWS < end; s++) {
+            Segment segment = segments[s];
+            if (segment == null) {
+                continue;
+            }
+            int rows = Math.min(SEGMENT_ROWS, end - s * SEGMENT_ROWS);
+            List<Lending> found;
+            long stamp;
+            do {
+                stamp = recycling.tryOptimisticRead();
+                found = new ArrayList<>();
+                if (segment.index != s || segment.maxLentAt < from || segment.minLentAt >= to) {
+                    break;
+                }
+                for (int offset = 0; offset < rows; offset++) {
+                    long lentAt = segment.lentAt(offset);
+                    if (lentAt >= from && lentAt < to) {
+                        found.add(view(s * SEGMENT_ROWS + offset, segment, offset));
+                    }
+                }
+            } while (!recycling.validate(stamp));
+            lendings.addAll(found);
+        }
+        return lendings;
+    }
+
+    /**
+     * Row the next lending will be appended to.
+     */
+    int nextRow() {
+        return size;
+    }
+
+    /**
+     * Visits the retained rows below `end` in the order they were recorded.
+     * Rows may be appended and returned meanwhile. Rows of segments
+     * dropped or reused meanwhile are skipped.
+     */
+    void forEach(int end, RowVisitor visitor) {
+        Segment[] segments = this.segments;
+        for (int s = firstSegment; s * SEGMENT_ROWS < end; s++) {
+            Segment segment = segments[s];
+            if (segment == null) {
+                continue;
+            }
+            int rows = Math.min(SEGMENT_ROWS, end - s * SEGMENT_ROWS);
+            for (int offset = 0; offset < rows; offset++) {
+                long stamp = recycling.tryOptimisticRead();
+                int bookId = segment.bookId(offset);
+                int userId = segment.userId(offset);
+                long lentAt = segment.lentAt(offset);
+                long dueAt = segment.dueAt(offset);
+                long returnedAt = segment.returnedAt(offset);
+                if (segment.index != s || !recycling.validate(stamp)) {
+                    break;
+                }
+                visitor.visit(s * SEGMENT_ROWS + offset, bookId, users.apply(userId), lentAt, dueAt, returnedAt);
+            }
+        }
+    }
+
+    Book book(int bookId) {
+        Book book = liveBooks.apply(bookId);
+        if (book != null) {
+            return book;
+        }
+        synchronized (this) {
+            return removedBooks.get(bookId);
+        }
+    }
+
+    /**
+     * Builds the lending of a row. A row read while its segment is being
+     * reused may not make sense, its view is then discarded by the caller.
+     */
+    private Lending view(int row, Segment segment, int offset) {
+        Book book = book(segment.bookId(offset));
+        if (book == null) {
+            return null;
+        }
+        long returnedAt = segment.returnedAt(offset);
+        if (returnedAt == NOT_RETURNED) {
+            Lending current = book.getLending(row);
+            if (current != null) {
+                return current;
+            }
+        }
+        return new Lending(book, users.apply(segment.userId(offset)),
+                segment.lentAt(offset), segment.dueAt(offset), returnedAt, row);
+    }
+
+    private Segment segmentOf(int row) {
+        if (row < 0 || row >= size) {
+            return null;
+        }
+        int index = row / SEGMENT_ROWS;
+        return index >= firstSegment ? segments[index] : null;
+    }
+
+    private Segment segmentForAppend(int row) {
+        int index = row / SEGMENT_ROWS;
+        if (index < segments.length && segments[index] != null) {
+            return segments[index];
+        }
+        Segment[] grown = index < segments.length ? segments.clone() : Arrays.copyOf(segments, segments.length * 2);
+        int firstInMemory = index - segmentsInMemory + 1;
+        int first = firstSegment;
+        HeapSegment dropped = null;
+        for (int s = first; s < firstInMemory; s++) {
+            if (grown[s] instanceof HeapSegment) {
+                if (spillDirectory != null) {
+                    grown[s] = spill(s, (HeapSegment) grown[s]);
+                } else {
+                    dropped = (HeapSegment) grown[s];
+                    forgetRemovedBooks(dropped, s);
+                    grown[s] = null;
+                    first = s + 1;
+                }
+            }
+        }
+        grown[index] = dropped != null ? reuse(dropped, index) : new HeapSegment(index);
+        segments = grown;
+        firstSegment = first;
+        return grown[index];
+    }
+
+    /**
+     * Forgets the removed books whose last lending is in a segment being dropped.
+     * Books still in the library are skipped first, so they aren't boxed.
+     */
+    private void forgetRemovedBooks(Segment segment, int index) {
+        if (removedBooks.isEmpty()) {
+            return;
+        }
+        for (int offset = 0; offset < SEGMENT_ROWS; offset++) {
+            int bookId = segment.bookId(offset);
+            if (lastRowOfBook[bookId] == index * SEGMENT_ROWS + offset && liveBooks.apply(bookId) == null) {
+                removedBooks.remove(bookId);
+            }
+        }
+    }
+
+    private HeapSegment reuse(HeapSegment segment, int index) {
+        long stamp = recycling.writeLock();
+        try {
+            segment.index = index;
+            segment.minLentAt = Long.MAX_VALUE;
+            segment.maxLentAt = Long.MIN_VALUE;
+        } finally {
+            recycling.unlockWrite(stamp);
+        }
+        return segment;
+    }
+
+    private MappedSegment spill(int index, HeapSegment segment) {
+        Path file = spillDirectory.resolve("lending-history-" + index + ".seg");
+        try {
+            Files.createDirectories(spillDirectory);
+            try (FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE, TRUNCATE_EXISTING)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, MappedSegment.BYTES);
+                segment.copyTo(buffer);
+                return new MappedSegment(buffer, index, segment.minLentAt, segment.maxLentAt);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot spill lending history to " + file, e);
+        }
+    }
+
+    private static int[] emptyRows(int length) {
+        int[] rows = new int[length];
+        Arrays.fill(rows, NO_ROW);
+        return rows;
+    }
+
+    private static int[] ensureCapacity(int[] rows, int index) {
+        if (index < rows.length) {
+            return rows;
+        }
+        int[] grown = Arrays.copyOf(rows, Math.max(rows.length * 2, index + 1));
+        Arrays.fill(grown, rows.length, grown.length, NO_ROW);
+        return grown;
+    }
+
+    /**
+     * A block of SEGMENT_ROWS rows. The lentAt bounds let
+     * time range queries skip whole segments.
+     */
+    private abstract static class Segment {
+
+        /**
+         * Index of the segment in the history, it changes when
+         * a dropped segment is reused.
+         */
+        volatile int index;
+        volatile long minLentAt = Long.MAX_VALUE;
+        volatile long maxLentAt = Long.MIN_VALUE;
+
+        abstract int bookId(int offset);
+
+        abstract int userId(int offset);
+
+        abstract long lentAt(int offset);
+
+        abstract long dueAt(int offset);
+
+        abstract long returnedAt(int offset);
+
+        abstract int previousOfBook(int offset);
+
+        abstract int previousOfUser(int offset);
+
+        abstract void setReturnedAt(int offset, long returnedAt);
+
+        void write(int offset, int bookId, int userId, long lentAt, long dueAt, long returnedAt,
+                int previousOfBook, int previousOfUser) {
+            throw new UnsupportedOperationException("only the last segment is appended to");
+        }
+    }
+
+    private static class HeapSegment extends Segment {
+
+        HeapSegment(int index) {
+            this.index = index;
+        }
+
+        private final int[] bookIds = new int[SEGMENT_ROWS];
+        private final int[] userIds = new int[SEGMENT_ROWS];
+        private final long[] lentAt = new long[SEGMENT_ROWS];
+        private final long[] dueAt = new long[SEGMENT_ROWS];
+        private final long[] returnedAt = new long[SEGMENT_ROWS];
+        private final int[] previousOfBook = new int[SEGMENT_ROWS];
+        private final int[] previousOfUser = new int[SEGMENT_ROWS];
+
+        @Override
+        int bookId(int offset) {
+            return bookIds[offset];
+        }
+
+        @Override
+        int userId(int offset) {
+            return userIds[offset];
+        }
+
+        @Override
+        long lentAt(int offset) {
+            return lentAt[offset];
+        }
+
+        @Override
+        long dueAt(int offset) {
+            return dueAt[offset];
+        }
+
+        @Override
+        long returnedAt(int offset) {
+            return returnedAt[offset];
+        }
+
+        @Override
+        int previousOfBook(int offset) {
+            return previousOfBook[offset];
+        }
+
+        @Override
+        int previousOfUser(int offset) {
+            return previousOfUser[offset];
+        }
+
+        @Override
+        void setReturnedAt(int offset, long returnedAt) {
+            this.returnedAt[offset] = returnedAt;
+        }
+
+        @Override
+        void write(int offset, int bookId, int userId, long lentAt, long dueAt, long returnedAt,
+                int previousOfBook, int previousOfUser) {
+            this.bookIds[offset] = bookId;
+            this.userIds[offset] = userId;
+            this.lentAt[offset] = lentAt;
+            this.dueAt[offset] = dueAt;
+            this.returnedAt[offset] = returnedAt;
+            this.previousOfBook[offset] = previousOfBook;
+            this.previousOfUser[offset] = previousOfUser;
+            minLentAt = Math.min(minLentAt, lentAt);
+            maxLentAt = Math.max(maxLentAt, lentAt);
+        }
+
+        void copyTo(ByteBuffer buffer) {
+            buffer.asIntBuffer().put(bookIds);
+            ((ByteBuffer) buffer.position(MappedSegment.USER_IDS)).asIntBuffer().put(userIds);
+            ((ByteBuffer) buffer.position(MappedSegment.LENT_AT)).asLongBuffer().put(lentAt);
+            ((ByteBuffer) buffer.position(MappedSegment.RETURNED_AT)).asLongBuffer().put(returnedAt);
+            ((ByteBuffer) buffer.position(MappedSegment.PREVIOUS_OF_BOOK)).asIntBuffer().put(previousOfBook);
+            ((ByteBuffer) buffer.position(MappedSegment.PREVIOUS_OF_USER)).asIntBuffer().put(previousOfUser);
+            ((ByteBuffer) buffer.position(MappedSegment.DUE_AT)).asLongBuffer().put(dueAt);
+            buffer.position(0);
+        }
+    }
+
+    /**
+     * A full segment spilled into a memory-mapped file, with the
+     * same columns laid out one after the other.
+     */
+    private static class MappedSegment extends Segment {
+
+        static final int USER_IDS = SEGMENT_ROWS * Integer.BYTES;
+        static final int LENT_AT = USER_IDS + SEGMENT_ROWS * Integer.BYTES;
+        static final int RETURNED_AT = LENT_AT + SEGMENT_ROWS * Long.BYTES;
+        static final int PREVIOUS_OF_BOOK = RETURNED_AT + SEGMENT_ROWS * Long.BYTES;
+        static final int PREVIOUS_OF_USER = PREVIOUS_OF_BOOK + SEGMENT_ROWS * Integer.BYTES;
+        static final int DUE_AT = PREVIOUS_OF_USER + SEGMENT_ROWS * Integer.BYTES;
+        static final int BYTES = DUE_AT + SEGMENT_ROWS * Long.BYTES;
+
+        private final ByteBuffer buffer;
+
+        MappedSegment(ByteBuffer buffer, int index, long minLentAt, long maxLentAt) {
+            this.buffer = buffer;
+            this.index = index;
+            this.minLentAt = minLentAt;
+            this.maxLentAt = maxLentAt;
+        }
+
+        @Override
+        int bookId(int offset) {
+            return buffer.getInt(offset * Integer.BYTES);
+        }
+
+        @Override
+        int userId(int offset) {
+            return buffer.getInt(USER_IDS + offset * Integer.BYTES);
+        }
+
+        @Override
+        long lentAt(int offset) {
+            return buffer.getLong(LENT_AT + offset * Long.BYTES);
+        }
+
+        @Override
+        long dueAt(int offset) {
+            return buffer.getLong(DUE_AT + offset * Long.BYTES);
+        }
+
+        @Override
+        long returnedAt(int offset) {
+            return buffer.getLong(RETURNED_AT + offset * Long.BYTES);
+        }
+
+        @Override
+        int previousOfBook(int offset) {
+            return buffer.getInt(PREVIOUS_OF_BOOK + offset * Integer.BYTES);
+        }
+
+        @Override
+        int previousOfUser(int offset) {
+            return buffer.getInt(PREVIOUS_OF_USER + offset * Integer.BYTES);
+        }
+
+        @Override
+        void setReturnedAt(int offset, long returnedAt) {
+            buffer.putLong(RETURNED_AT + offset * Long.BYTES, returnedAt);
+        }
+    }
+}
@@ -1,46 +1,265 @@
 package com.adri0.librarian.core;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 
+/**
+ * The library is safe to use from multiple threads.
+ * Operations over a book (add, remove, lend and return) are guarded
+ * by one of a fixed set of lock stripes chosen by bookId, so operations
+ * on different books proceed in parallel. User and title records are
+ * guarded by their own monitors, acquired after the stripe of the book,
+ * and the user's before the title's. Users are registered, and given
+ * their ids, under a registry lock of their own.
+ *
+ * A library with default settings is created with `new Library()`,
+ * use `Library.builder()` to tune it.
+ */
 public class Library {
 
+    private static final int LOCK_STRIPES = 64;
+
+    static final Duration DEFAULT_LOAN_PERIOD = Duration.ofDays(30);
+
     /**
-     * All added books are stored in this map.
-     * It maps the bookId to a Book instance.
+     * All added books are stored in this table.
+     * It maps the bookId to a Book instance. Copies of a mapped
+     * catalog are only stored once materialized, see `book`.
      */
-    private final Map<Integer, Book> allBooks;
+    private final IdTable<Book> allBooks;
 
     /**
-     * All books lent are inside this map.
-     * It maps the bookId to its respective lending object.
+     * Number of books in the library, materialized or not.
      */
-    private final Map<Integer, Lending> currentLendings;
+    private final AtomicInteger bookCount;
 
     /**
-     * Catalog of all unique titles in the library
+     * The catalog file the library was opened from, if any,
+     * and its titles by index. See `openCatalog`.
      */
-    private final Set<Title> catalog;
+    private volatile CatalogFile mappedCatalog;
+    private volatile Title[] mappedTitles;
+
+    /**
+     * Whether every copy of the mapped catalog has been materialized,
+     * so `allBooks` can be scanned.
+     */
+    private volatile boolean materialized;
+
+    /**
+     * Number of books currently lent. Each lent book keeps
+     * its own loan, see `Book`.
+     */
+    private final AtomicInteger lentBookCount;
+
+    /**
+     * Bitmaps of the ids of the books in the library and of the
+     * books currently lent, so availability is found a word at a time.
+     */
+    private final IdBitSet presentBooks;
+    private final IdBitSet lentBooks;
+
+    /**
+     * Catalog of all unique titles in the library.
+     * It maps each title with copies in the library to its record,
+     * which keeps the copies and active lendings of that title.
+     * The title kept by a record is the canonical instance of the title,
+     * shared by all of its copies.
+     */
+    private final Map<Title, TitleRecord> catalog;
+
+    /**
+     * Records of the titles changed since the last catalog snapshot,
+     * in the order they changed. See `catalogSnapshot`.
+     */
+    private final Queue<TitleRecord> changedTitles;
+
+    /**
+     * Last published catalog snapshot, and the overviews it was built
+     * from, guarded by `snapshotOverviews`.
+     */
+    private volatile CatalogSnapshot catalogSnapshot;
+    private final CatalogOverviews snapshotOverviews;
+
+    /**
+     * Last snapshot of the books, see `snapshot`.
+     */
+    private volatile LibrarySnapshot snapshot;
+
+    /**
+     * State of the checkpoint being encoded, or null, see `freezeCheckpoint`.
+     */
+    private volatile CheckpointImage checkpoint;
+
+    /**
+     * Author names shared by the canonical titles,
+     * so titles of the same author don't duplicate it.
+     */
+    private final Map<String, String> authors;
+
+    /**
+     * Trigram indexes over the titles and authors of the
+     * titles that have at least one copy in the library.
+     */
+    private final NGramIndex<Title> titleIndex;
+    private final NGramIndex<Title> authorIndex;
+
+    /**
+     * Titles with at least one copy in the library, sorted by year.
+     */
+    private final YearIndex yearIndex;
+
+    /**
+     * Users registered in the library by user id. Users are registered
+     * explicitly or when they first borrow a book. Each record keeps
+     * the books the user currently has.
+     */
+    private final IdTable<UserRecord> users;
+
+    /**
+     * Guards registrations, and the last user id given by the library.
+     * Acquired after the stripe of a book, before any record.
+     */
+    private final Object registry;
+    private int lastUserId;
+
+    /**
+     * Most books a user can have at the same time.
+     */
+    private final int loanLimit;
+
+    /**
+     * How long a book can be kept, in milliseconds,
+     * and the lent books by due date.
+     */
+    private final long loanPeriod;
+    private final DueDateIndex dueDates;
 
     /**
      * History of all lending performed. It maintains
      * both the active and past lendings.
+     * See `LendingHistory` for how its size is bounded.
      */
-    private final List<Lending> lendingHistory;
+    private final LendingHistory lendingHistory;
 
     /**
      * Stores the last assigned bookId, so it is known
      * which should be the next bookId;
      */
-    private int lastBookId;
+    private final AtomicInteger lastBookId;
+
+    /**
+     * Lock stripes guarding the state of each book.
+     * See `lockFor`.
+     */
+    private final Object[] locks;
+
+    /**
+     * Source of the timestamps of lendings and returns.
+     */
+    private final LocalClock clock;
+
+    /**
+     * Notified of every change while the lock of the changed book is held.
+     * See `LibraryStore` for how it's used to persist the library.
+     * It's NONE, a single listener, or `Listeners` when there are many.
+     */
+    private volatile MutationListener listener;
+
+    /**
+     * Times operations and queries, see `LibraryMetrics`.
+     */
+    private final LibraryMetrics metrics;
 
     public Library() {
-        this.allBooks = new HashMap<>();
-        this.catalog = new HashSet<>();
-        this.currentLendings = new HashMap<>();
-        this.lendingHistory = new LinkedList<>();
-        this.lastBookId = 0;
+        this(new Builder());
+    }
+
+    private Library(Builder builder) {
+        this.allBooks = new IdTable<>();
+        this.bookCount = new AtomicInteger();
+        this.materialized = true;
+        this.catalog = new ConcurrentHashMap<>();
+        this.authors = new ConcurrentHashMap<>();
+        this.changedTitles = new ConcurrentLinkedQueue<>();
+        this.catalogSnapshot = new CatalogSnapshot(0, Collections.emptyList());
+        this.snapshotOverviews = new CatalogOverviews();
+        this.titleIndex = new NGramIndex<>();
+        this.authorIndex = new NGramIndex<>();
+        this.yearIndex = new YearIndex();
+        this.lentBookCount = new AtomicInteger();
+        this.presentBooks = new IdBitSet();
+        this.lentBooks = new IdBitSet();
+        this.users = new IdTable<>();
+        this.registry = new Object();
+        this.loanLimit = builder.loanLimit;
+        this.loanPeriod = builder.loanPeriod.toMillis();
+        this.clock = new LocalClock(builder.clock);
+        this.dueDates = new DueDateIndex(LOCK_STRIPES);
+        this.lendingHistory = new LendingHistory(
+                builder.historySegmentsInMemory, builder.historySpillDirectory, allBooks::get, this::getUser);
+        this.lastBookId = new AtomicInteger();
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        this.listener = MutationListener.NONE;
+        this.metrics = builder.metrics;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Opens a library with the catalog written by `writeCatalog` into
+     * the given file, which is memory-mapped rather than read. See
+     * `openCatalog(Path, Builder)`.
+     */
+    public static Library openCatalog(Path file) throws IOException {
+        return openCatalog(file, builder());
+    }
+
+    /**
+     * Opens a library with the given settings and the catalog written by
+     * `writeCatalog` into the given file, which is memory-mapped.
+     *
+     * Titles are indexed while opening, but copies are only turned into
+     * `Book` objects the first time they are used: looked up, lent, found
+     * by a search, or listed in a title overview. Searches by title, author,
+     * year or availability only materialize the copies they return,
+     * while scanning all books, such as searching with a bare predicate,
+     * materializes every copy once.
+     */
+    public static Library openCatalog(Path file, Builder settings) throws IOException {
+        Library library = settings.build();
+        library.mapCatalog(CatalogFile.open(file));
+        return library;
+    }
+
+    /**
+     * Writes the titles and copies of the library, keeping their bookIds,
+     * into a compact binary file that `openCatalog` maps. Lendings, users
+     * and history aren't written, see `LibraryStore` to keep those.
+     */
+    public void writeCatalog(Path file) throws IOException {
+        CatalogFile.write(this, file);
     }
 
     /**
@@ -49,78 +268,426 @@ public class Library {
      * bookId, creates a new Book object with the respective title
      * and add it to the allBooks map.
      * If it's a new book title, also adds it to the catalog.
+     * All copies of a title share the catalog's Title instance.
      */
     public Book addBook(String title, String author, int year) {
-        Title bookTitle = getTitle(title, author, year);
-        int id = generateId();
-        Book book = new Book(id, bookTitle);
-        allBooks.put(id, book);
-        return book;
+        return addBook(generateId(), new Title(title, author, year));
+    }
+
+    private Book addBook(int id, Title bookTitle) {
+        synchronized (lockFor(id)) {
+            while (true) {
+                TitleRecord record = getTitleRecord(bookTitle);
+                synchronized (record) {
+                    // the record may have been dropped by removing
+                    // the last copy of the title in the meantime
+                    if (record.isRemoved()) {
+                        continue;
+                    }
+                    Book book = new Book(id, record.getTitle());
+                    allBooks.put(id, book);
+                    presentBooks.set(id);
+                    bookCount.incrementAndGet();
+                    record.addCopy(id);
+                    listener.bookAdded(book);
+                    return book;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds many books at once. Each title of the stream stands for one copy.
+     * Titles are deduplicated in a single pass, and then the copies of each
+     * title are added with a block of consecutive bookIds. When the stream is
+     * parallel, titles are deduplicated and added in parallel as well.
+     * Returns a report with the number of books added and the throughput.
+     */
+    public ImportReport importBooks(Stream<Title> copies) {
+        long start = System.nanoTime();
+        boolean parallel = copies.isParallel();
+        Map<Title, Long> copiesByTitle = parallel
+                ? copies.collect(Collectors.groupingByConcurrent(Function.identity(), Collectors.counting()))
+                : copies.collect(Collectors.groupingBy(Function.identity(), LinkedHashMap::new, Collectors.counting()));
+        long totalCopies = 0;
+        for (long titleCopies : copiesByTitle.values()) {
+            totalCopies += titleCopies;
+        }
+        if (lastBookId.get() + totalCopies > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many books to import: " + totalCopies);
+        }
+        allBooks.reserve((int) (lastBookId.get() + totalCopies));
+        Stream<Map.Entry<Title, Long>> titles = parallel
+                ? copiesByTitle.entrySet().parallelStream()
+                : copiesByTitle.entrySet().stream();
+        titles.forEach(entry -> addCopies(entry.getKey(), entry.getValue().intValue()));
+        return new ImportReport(totalCopies, copiesByTitle.size(), Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * Adds the books listed in a delimited file, such as a CSV or TSV file.
+     * Each line holds the title, author and year of one copy. Fields may be
+     * enclosed in double quotes. Blank lines and lines starting with '#' are
+     * skipped. With `parallel`, lines are parsed in parallel.
+     * See `importBooks(Stream)`.
+     */
+    public ImportReport importBooks(Path file, char separator, boolean parallel) throws IOException {
+        try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+            Stream<String> source = parallel ? lines.parallel() : lines;
+            return importBooks(source
+                    .filter(line -> !BookImport.isSkipped(line))
+                    .map(line -> BookImport.parseLine(line, separator)));
+        }
+    }
+
+    /**
+     * Adds copies of a title with consecutive bookIds.
+     * The canonical title returned by the first copy is used for
+     * the rest, so they don't compare the title's fields again.
+     */
+    private void addCopies(Title title, int copies) {
+        int firstId = lastBookId.getAndAdd(copies) + 1;
+        Title bookTitle = title;
+        for (int i = 0; i < copies; i++) {
+            bookTitle = addBook(firstId + i, bookTitle).getTitleObj();
+        }
     }
 
     /**
      * Remove a book given its bookId.
      */
     public void removeBook(int bookId) {
-        assertBookExists(bookId);
-        assertBookNotLent(bookId, "cannot remove a book that has been lent");
-        allBooks.remove(bookId);
+        synchronized (lockFor(bookId)) {
+            Book book = existingBook(bookId);
+            assertBookNotLent(book, "cannot remove a book that has been lent");
+            lendingHistory.retire(book);
+            TitleRecord record = catalog.get(book.getTitleObj());
+            synchronized (record) {
+                // dropped from the copies of the title first, so they never list a
+                // removed book, and from `presentBooks` before the table, so a copy
+                // being materialized meanwhile is dropped, see `book`
+                record.removeCopy(bookId);
+                presentBooks.clear(bookId);
+                allBooks.remove(bookId);
+                bookCount.decrementAndGet();
+                if (record.isEmpty()) {
+                    removeTitleRecord(record);
+                }
+            }
+            listener.bookRemoved(book);
+        }
     }
 
     /**
      * Get a book instance from the library given its bookId.
      */
     public Book getBook(int bookId) {
-        return allBooks.get(bookId);
+        return book(bookId);
     }
 
     /**
      * Check whether a book with the provided id exists in the library.
      */
     public boolean containsBook(int bookId) {
-        return allBooks.get(bookId) == null;
+        return presentBooks.get(bookId);
     }
 
     /**
      * Returns the number of books in the library.
      */
     public int totalBooks() {
-        return allBooks.size();
+        return bookCount.get();
     }
 
+    /**
+     * Returns the lendings of all lent books, by bookId.
+     */
     public List<Lending> getCurrentLendings() {
-        return Arrays.asList(currentLendings.values().toArray(new Lending[] {}));
+        List<Lending> lendings = new ArrayList<>(lentBookCount.get());
+        lentBooks.stream(false).forEach(bookId -> {
+            Book book = allBooks.get(bookId);
+            Lending lending = book != null ? book.getLending() : null;
+            if (lending != null) {
+                lendings.add(lending);
+            }
+        });
+        return lendings;
     }
 
     /**
      * Lends a book by providing its bookId and a user.
      * If the book doesn't exist it will throw an NoSuchElementException.
-     * If the book has been lent, throws an IllegalStateException.
+     * If the book has been lent, or the user already has as many books
+     * as the loan limit allows, throws an IllegalStateException.
+     * The user is registered on its first lending.
+     * The book is due after the loan period.
      * Returns a Lending instance providing details of the lending.
-     * Adds the Lending instance to the currentLendings map.
      */
     public Lending lendBook(int bookId, User user) {
-        assertBookExists(bookId);
-        assertBookNotLent(bookId, "cannot lend a book that has been lent");
-        Book book = allBooks.get(bookId);
-        Lending lending = new Lending(book, user);
-        book.setLending(lending);
-        currentLendings.put(bookId, lending);
-        lendingHistory.add(lending);
+        long start = metrics.start();
+        long lentAt = clock.millis();
+        Lending lending = lendBook(bookId, user, lentAt, lentAt + loanPeriod, loanLimit);
+        metrics.record(LibraryMetrics.Operation.LEND, start);
         return lending;
     }
 
+    /**
+     * Lends a book like `lendBook`, without building its Lending, which
+     * is still found later among the current lendings. Once the library
+     * is warmed up, checking a book out and returning it don't allocate.
+     */
+    public void checkOut(int bookId, User user) {
+        long start = metrics.start();
+        long lentAt = clock.millis();
+        synchronized (lockFor(bookId)) {
+            lendLocked(bookId, user, lentAt, lentAt + loanPeriod, loanLimit);
+        }
+        metrics.record(LibraryMetrics.Operation.LEND, start);
+    }
+
+    private Lending lendBook(int bookId, User user, long lentAt, long dueAt, int loanLimit) {
+        synchronized (lockFor(bookId)) {
+            return lendLocked(bookId, user, lentAt, dueAt, loanLimit).getLending();
+        }
+    }
+
+    /**
+     * Lends many books to a user at once, all with the same lending time.
+     * Each book is lent or fails as `lendBook` would, without affecting
+     * the rest of the batch. Books are lent grouped by lock stripe, each
+     * stripe locked once for all of its books, so when the batch goes
+     * beyond the loan limit which books fail is not specified.
+     */
+    public BatchResult lendBooks(int[] bookIds, User user) {
+        long start = metrics.start();
+        long lentAt = clock.millis();
+        long dueAt = lentAt + loanPeriod;
+        BatchResult result = new BatchResult(bookIds.length);
+        forEachByStripe(bookIds, index -> {
+            try {
+                result.succeeded(index, lendLocked(bookIds[index], user, lentAt, dueAt, loanLimit).getLending());
+            } catch (NoSuchElementException | IllegalStateException e) {
+                result.failed(index, e);
+            }
+        });
+        metrics.record(LibraryMetrics.Operation.LEND_BATCH, start);
+        return result;
+    }
+
+    private Book lendLocked(int bookId, User user, long lentAt, long dueAt, int loanLimit) {
+        Book book = existingBook(bookId);
+        assertBookNotLent(book, "cannot lend a book that has been lent");
+        UserRecord userRecord = userRecord(user);
+        synchronized (userRecord) {
+            if (userRecord.activeLendings() >= loanLimit) {
+                throw new IllegalStateException(
+                        "user " + user.getName() + " already has " + loanLimit + " books");
+            }
+            int historyRow = lendingHistory.append(bookId, user, lentAt, dueAt);
+            book.lend(user, lentAt, dueAt, historyRow);
+            dueDates.add(stripeOf(bookId), book, dueAt);
+            lentBooks.set(bookId);
+            lentBookCount.incrementAndGet();
+            userRecord.lent(book);
+            catalog.get(book.getTitleObj()).lent();
+            listener.bookLent(book);
+            return book;
+        }
+    }
+
     /**
      * Returns a book that has been lent.
-     * Its respective Lending object is finished
-     * and removed from currentLendings map.
+     * Its respective Lending object is finished.
      */
     public void returnBook(int bookId) {
-        assertBookExists(bookId);
-        assertBookLent(bookId, "cannot return a book that hasn't been lent");
-        Lending lending = currentLendings.get(bookId);
-        lending.finish();
-        currentLendings.remove(bookId);
+        long start = metrics.start();
+        returnBook(bookId, clock.millis());
+        metrics.record(LibraryMetrics.Operation.RETURN, start);
+    }
+
+    private void returnBook(int bookId, long returnedAt) {
+        synchronized (lockFor(bookId)) {
+            returnLocked(bookId, returnedAt);
+        }
+    }
+
+    /**
+     * Returns many books at once, all with the same return time.
+     * Each book is returned or fails as `returnBook` would, without
+     * affecting the rest of the batch. The lendings of the result are
+     * the finished lendings.
+     */
+    public BatchResult returnBooks(int[] bookIds) {
+        long start = metrics.start();
+        long returnedAt = clock.millis();
+        BatchResult result = new BatchResult(bookIds.length);
+        forEachByStripe(bookIds, index -> {
+            try {
+                Book book = book(bookIds[index]);
+                Lending lending = book != null ? book.getLending() : null;
+                returnLocked(bookIds[index], returnedAt);
+                result.succeeded(index, lending);
+            } catch (NoSuchElementException | IllegalStateException e) {
+                result.failed(index, e);
+            }
+        });
+        metrics.record(LibraryMetrics.Operation.RETURN_BATCH, start);
+        return result;
+    }
+
+    private void returnLocked(int bookId, long returnedAt) {
+        Book book = existingBook(bookId);
+        User borrower = book.getBorrower();
+        assertBookLent(borrower, bookId, "cannot return a book that hasn't been lent");
+        CheckpointImage image = checkpoint;
+        if (image != null) {
+            image.returning(book);
+        }
+        dueDates.remove(stripeOf(bookId), book);
+        lendingHistory.returned(book.historyRow(), returnedAt);
+        users.get(borrower.getId()).returned(book);
+        book.returnBook(returnedAt);
+        lentBooks.clear(bookId);
+        lentBookCount.decrementAndGet();
+        catalog.get(book.getTitleObj()).returned();
+        listener.bookReturned(book, borrower, returnedAt);
+    }
+
+    /**
+     * Visits the positions of the given bookIds grouped by lock stripe,
+     * holding each stripe once while visiting all of its books.
+     * Books of the same stripe are visited in the order given.
+     */
+    private void forEachByStripe(int[] bookIds, IntConsumer action) {
+        int[] stripeStart = new int[LOCK_STRIPES + 1];
+        for (int bookId : bookIds) {
+            stripeStart[stripeOf(bookId) + 1]++;
+        }
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+            stripeStart[stripe + 1] += stripeStart[stripe];
+        }
+        int[] next = Arrays.copyOf(stripeStart, LOCK_STRIPES);
+        int[] byStripe = new int[bookIds.length];
+        for (int index = 0; index < bookIds.length; index++) {
+            byStripe[next[stripeOf(bookIds[index])]++] = index;
+        }
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+            if (stripeStart[stripe] == stripeStart[stripe + 1]) {
+                continue;
+            }
+            synchronized (locks[stripe]) {
+                for (int i = stripeStart[stripe]; i < stripeStart[stripe + 1]; i++) {
+                    action.accept(byStripe[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a new user and returns it.
+     */
+    public User registerUser(String name) {
+        User user = new User(name);
+        userRecord(user);
+        return user;
+    }
+
+    /**
+     * Returns the registered user with the given id, or null.
+     */
+    public User getUser(int userId) {
+        UserRecord record = users.get(userId);
+        return record != null ? record.getUser() : null;
+    }
+
+    /**
+     * Returns the lendings of the books a user currently has,
+     * from the oldest to the most recent.
+     */
+    public List<Lending> getCurrentLendings(User user) {
+        UserRecord record = users.get(user.getId());
+        return record != null ? record.lendings() : Collections.emptyList();
+    }
+
+    /**
+     * Returns the current lendings that are overdue now, by due date.
+     */
+    public List<Lending> getOverdueLendings() {
+        return dueBetween(Long.MIN_VALUE, clock.millis());
+    }
+
+    /**
+     * Returns the current lendings that were due before the given time,
+     * by due date. Only the overdue lendings are visited.
+     */
+    public List<Lending> getOverdueLendings(LocalDateTime now) {
+        return dueBetween(Long.MIN_VALUE, LendingHistory.toMillis(now));
+    }
+
+    /**
+     * Publishes the changes of the library from now on to the given
+     * consumers, through a ring of the given capacity, until the
+     * returned stream is closed. See `EventStream`.
+     */
+    public EventStream streamEvents(int capacity, EventStream.Overflow overflow, LibraryEventConsumer... consumers) {
+        return new EventStream(this, capacity, overflow, consumers);
+    }
+
+    /**
+     * Calls back with every current lending as soon as it becomes overdue,
+     * checking every interval, until the returned watch is closed.
+     * See `OverdueWatch`.
+     */
+    public OverdueWatch watchOverdue(Consumer<Lending> callback, Duration interval) {
+        return new OverdueWatch(this, callback, interval);
+    }
+
+    /**
+     * Local time of the library's clock, as milliseconds.
+     */
+    long clockMillis() {
+        return clock.millis();
+    }
+
+    /**
+     * Current lendings due within [from, to), by due date.
+     */
+    List<Lending> dueBetween(long from, long to) {
+        List<Lending> due = new ArrayList<>();
+        for (int stripe = 0; stripe < locks.length; stripe++) {
+            synchronized (locks[stripe]) {
+                dueDates.collect(stripe, from, to, due);
+            }
+        }
+        due.sort(Comparator.comparingLong(Lending::dueAtMillis)
+                .thenComparingLong(Lending::lentAtMillis)
+                .thenComparingInt(Lending::getHistoryRow));
+        return due;
+    }
+
+    /**
+     * Returns all lendings of a book, active or past,
+     * from the oldest to the most recent.
+     * Lendings of a removed book are still kept.
+     */
+    public List<Lending> getLendingHistory(int bookId) {
+        return lendingHistory.ofBook(bookId);
+    }
+
+    /**
+     * Returns all lendings of a user, active or past,
+     * from the oldest to the most recent.
+     */
+    public List<Lending> getLendingHistory(User user) {
+        return lendingHistory.ofUser(user);
+    }
+
+    /**
+     * Returns the lendings that started at or after `from`
+     * and before `to`, in the order they happened.
+     */
+    public List<Lending> getLendingHistory(LocalDateTime from, LocalDateTime to) {
+        return lendingHistory.between(LendingHistory.toMillis(from), LendingHistory.toMillis(to));
     }
 
     /**
@@ -129,29 +696,83 @@ public class Library {
      * exist in the library and how many of those are lent.
      */
     public TitleOverview getTitleOverview(Title title) {
-        return new TitleOverview(
-                title,
-                allBooks.values().stream()
-                        .filter(book -> book.getTitleObj().equals(title))
-                        .collect(Collectors.toList()),
-                currentLendings.values().stream()
-                        .filter(lending -> lending.getBookTitle().equals(title))
-                        .collect(Collectors.toList()));
+        long start = metrics.start();
+        TitleRecord record = catalog.get(title);
+        TitleOverview overview = record != null ? record.overview() : new TitleOverview(title, null, null);
+        metrics.record(LibraryMetrics.Operation.TITLE_OVERVIEW, start);
+        return overview;
     }
 
     /**
      * Returns a collection containing TitleOverview of
      * all titles available in the library.
+     * The list is the one of the current catalog snapshot,
+     * it can't be modified.
      */
     public List<TitleOverview> listAllTitles() {
-        Map<Title, List<Book>> booksByTitle = allBooks.values().stream()
-                .collect(Collectors.groupingBy(Book::getTitleObj));
-        Map<Title, List<Lending>> lendingsByTitle = currentLendings.values().stream()
-                .collect(Collectors.groupingBy(Lending::getBookTitle));
-        return catalog.stream()
-                .filter(title -> booksByTitle.size() > 0)
-                .map(title -> new TitleOverview(title, booksByTitle.get(title), lendingsByTitle.get(title)))
-                .collect(Collectors.toList());
+        long start = metrics.start();
+        List<TitleOverview> titles = catalogSnapshot().getTitles();
+        metrics.record(LibraryMetrics.Operation.LIST_ALL_TITLES, start);
+        return titles;
+    }
+
+    /**
+     * Returns an immutable snapshot of the overviews of all titles.
+     *
+     * While the catalog doesn't change, the same snapshot is returned.
+     * Otherwise only the titles changed since the last snapshot are
+     * visited, and the next snapshot shares the pages of overviews they
+     * didn't touch with the last one, see `CatalogOverviews`. Changing the library doesn't wait for snapshots being taken.
+     */
+    public CatalogSnapshot catalogSnapshot() {
+        if (changedTitles.isEmpty()) {
+            return catalogSnapshot;
+        }
+        synchronized (snapshotOverviews) {
+            boolean changed = false;
+            TitleRecord record;
+            while ((record = changedTitles.poll()) != null) {
+                TitleOverview overview = record.takeChange();
+                if (overview == null) {
+                    changed |= snapshotOverviews.remove(record);
+                } else {
+                    snapshotOverviews.put(record, overview);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                catalogSnapshot = new CatalogSnapshot(catalogSnapshot.getVersion() + 1, snapshotOverviews.freeze());
+            }
+            return catalogSnapshot;
+        }
+    }
+
+    /**
+     * Returns an immutable snapshot of the books of the library and
+     * of their availability, to search or report on a consistent state
+     * while books keep being lent and returned. See `LibrarySnapshot`.
+     *
+     * Taking a snapshot holds every lock stripe only to freeze the
+     * pages of the book table and bitmaps, without copying them. Each
+     * page is copied by the first change to it afterwards, so changes
+     * only copy the pages they touch, once per snapshot. While the
+     * books don't change, the same snapshot is returned.
+     */
+    public LibrarySnapshot snapshot() {
+        LibrarySnapshot last = snapshot;
+        if (last != null && !allBooks.changedSince(last.books())
+                && !presentBooks.changedSince(last.presentBooks()) && !lentBooks.changedSince(last.lentBooks())) {
+            return last;
+        }
+        LibrarySnapshot[] taken = new LibrarySnapshot[1];
+        exclusively(() -> {
+            LibrarySnapshot previous = snapshot;
+            taken[0] = new LibrarySnapshot(this, previous != null ? previous.getVersion() + 1 : 1,
+                    allBooks.freeze(), presentBooks.freeze(), lentBooks.freeze(),
+                    bookCount.get(), lentBookCount.get());
+            snapshot = taken[0];
+        });
+        return taken[0];
     }
 
     /**
@@ -162,34 +783,581 @@ public class Library {
      * The method Query::execute must be called.
      */
     public Query search() {
-        return new Query(this.allBooks.values());
+        return new Query(this);
     }
 
-    private void assertBookExists(int bookId) {
-        if (!allBooks.containsKey(bookId)) {
+    /**
+     * All books, in bookId order. Materializes the copies of
+     * a mapped catalog that haven't been yet.
+     */
+    Collection<Book> allBooks() {
+        if (!materialized) {
+            CatalogFile catalogFile = mappedCatalog;
+            for (int bookId = 1; bookId <= catalogFile.lastBookId(); bookId++) {
+                book(bookId);
+            }
+            materialized = true;
+        }
+        return allBooks.values();
+    }
+
+    /**
+     * Number of books that exist as objects, see `book`.
+     */
+    int materializedBooks() {
+        return allBooks.size();
+    }
+
+    Collection<TitleRecord> titleRecords() {
+        return catalog.values();
+    }
+
+    /**
+     * Returns the book with the given id, or null. A copy of the mapped
+     * catalog is materialized the first time it's asked for, without
+     * locking. If the copy is removed meanwhile, the materialized book
+     * is dropped again, since the removal clears the book from
+     * `presentBooks` before the table.
+     */
+    private Book book(int bookId) {
+        Book book = allBooks.get(bookId);
+        if (book != null || materialized) {
+            return book;
+        }
+        CatalogFile catalogFile = mappedCatalog;
+        int title = catalogFile.titleOf(bookId);
+        if (title == CatalogFile.NO_TITLE || !presentBooks.get(bookId)) {
+            return null;
+        }
+        book = allBooks.putIfAbsent(bookId, new Book(bookId, mappedTitles[title]));
+        if (!presentBooks.get(bookId)) {
+            allBooks.remove(bookId, book);
+            return null;
+        }
+        return book;
+    }
+
+    /**
+     * Returns a book of a snapshot taken with the given table. Copies of
+     * a mapped catalog missing from it are materialized, or, if removed
+     * since, built again from the catalog.
+     */
+    Book snapshotBook(IdTable<Book> books, int bookId) {
+        Book book = books.get(bookId);
+        CatalogFile catalogFile = mappedCatalog;
+        if (book != null || catalogFile == null) {
+            return book;
+        }
+        book = book(bookId);
+        if (book != null) {
+            return book;
+        }
+        int title = catalogFile.titleOf(bookId);
+        return title != CatalogFile.NO_TITLE ? new Book(bookId, mappedTitles[title]) : null;
+    }
+
+    /**
+     * Adds the titles and copies of a catalog file to an empty library.
+     * Titles are indexed right away, copies are only marked present.
+     */
+    private void mapCatalog(CatalogFile catalogFile) {
+        Title[] titles = new Title[catalogFile.titleCount()];
+        TitleRecord[] records = new TitleRecord[titles.length];
+        for (int i = 0; i < titles.length; i++) {
+            records[i] = getTitleRecord(catalogFile.title(i));
+            titles[i] = records[i].getTitle();
+        }
+        int books = 0;
+        for (int bookId = 1; bookId <= catalogFile.lastBookId(); bookId++) {
+            int title = catalogFile.titleOf(bookId);
+            if (title != CatalogFile.NO_TITLE) {
+                presentBooks.set(bookId);
+                records[title].addCopy(bookId);
+                books++;
+            }
+        }
+        bookCount.set(books);
+        lastBookId.set(catalogFile.lastBookId());
+        mappedTitles = titles;
+        mappedCatalog = catalogFile;
+        materialized = false;
+    }
+
+    LendingHistory lendingHistory() {
+        return lendingHistory;
+    }
+
+    int lastBookId() {
+        return lastBookId.get();
+    }
+
+    int userCount() {
+        return users.size();
+    }
+
+    LibraryMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Adds a listener, notified of the changes applied once it's added.
+     */
+    synchronized void addListener(MutationListener added) {
+        MutationListener current = listener;
+        if (current == MutationListener.NONE) {
+            listener = added;
+        } else if (current instanceof Listeners) {
+            listener = ((Listeners) current).with(added);
+        } else {
+            listener = new Listeners(new MutationListener[]{current, added});
+        }
+    }
+
+    synchronized void removeListener(MutationListener removed) {
+        MutationListener current = listener;
+        if (current == removed) {
+            listener = MutationListener.NONE;
+        } else if (current instanceof Listeners) {
+            listener = ((Listeners) current).without(removed);
+        }
+    }
+
+    /**
+     * Runs the given action while holding every lock stripe and the
+     * registry, so no book can be added, removed, lent or returned,
+     * nor user registered, meanwhile.
+     */
+    void exclusively(Runnable action) {
+        exclusively(0, action);
+    }
+
+    private void exclusively(int stripe, Runnable action) {
+        if (stripe == locks.length) {
+            synchronized (registry) {
+                action.run();
+            }
+            return;
+        }
+        synchronized (locks[stripe]) {
+            exclusively(stripe + 1, action);
+        }
+    }
+
+    /**
+     * Freezes the state of the library for a checkpoint, in constant time.
+     * The caller holds every lock stripe, see `exclusively`, and releases
+     * the image once it's encoded.
+     */
+    CheckpointImage freezeCheckpoint() {
+        CheckpointImage image = new CheckpointImage(snapshot(), users.freeze(),
+                lastBookId.get(), lendingHistory.nextRow());
+        checkpoint = image;
+        return image;
+    }
+
+    void releaseCheckpoint(CheckpointImage image) {
+        if (checkpoint == image) {
+            checkpoint = null;
+        }
+    }
+
+    /**
+     * The lendings current at a checkpoint, by bookId. Each book's
+     * lock stripe is held while its loan is read.
+     */
+    List<Lending> lendingsAt(CheckpointImage image) {
+        List<Lending> lendings = new ArrayList<>(image.books().totalLentBooks());
+        image.books().lentBookIds(false).forEach(bookId -> {
+            synchronized (lockFor(bookId)) {
+                Lending lending = image.returnedLoan(bookId);
+                if (lending == null) {
+                    Book book = allBooks.get(bookId);
+                    lending = book != null ? book.getLending() : null;
+                }
+                if (lending != null) {
+                    lendings.add(lending);
+                }
+            }
+        });
+        return lendings;
+    }
+
+    /*
+     * The following methods replay changes recorded by a LibraryStore.
+     * They keep the original bookIds and timestamps.
+     */
+
+    Book restoreBook(int bookId, Title title) {
+        lastBookId.accumulateAndGet(bookId, Math::max);
+        return addBook(bookId, title);
+    }
+
+    void restoreLending(int bookId, User user, long lentAt, long dueAt) {
+        synchronized (lockFor(bookId)) {
+            lendLocked(bookId, user, lentAt, dueAt, Integer.MAX_VALUE);
+        }
+    }
+
+    void restoreUser(User user) {
+        userRecord(user);
+    }
+
+    void restoreReturn(int bookId, long returnedAt) {
+        returnBook(bookId, returnedAt);
+    }
+
+    /**
+     * Restores a finished lending of a book that has
+     * since been removed from the library.
+     */
+    void restoreHistory(Book removedBook, User user, long lentAt, long dueAt, long returnedAt) {
+        userRecord(user);
+        int row = lendingHistory.append(removedBook.getId(), user, lentAt, dueAt);
+        lendingHistory.returned(row, returnedAt);
+        lendingHistory.retire(removedBook);
+    }
+
+    void restoreLastBookId(int bookId) {
+        lastBookId.accumulateAndGet(bookId, Math::max);
+    }
+
+    /**
+     * Returns the record of a user, registering the user if needed.
+     * A user without an id gets the next one of the library. A user
+     * with an id is the one registered with it, or is registered with it.
+     */
+    private UserRecord userRecord(User user) {
+        UserRecord record = users.get(user.getId());
+        if (record != null) {
+            return record;
+        }
+        synchronized (registry) {
+            int userId = user.register(lastUserId + 1);
+            record = users.get(userId);
+            if (record == null) {
+                lastUserId = Math.max(lastUserId, userId);
+                record = new UserRecord(user);
+                // changes of the user wait on the record until its registration is logged
+                synchronized (record) {
+                    users.put(userId, record);
+                    listener.userRegistered(user);
+                }
+            }
+            return record;
+        }
+    }
+
+    /**
+     * Titles whose author contains the given fragment, ignoring case.
+     */
+    Set<Title> titlesByAuthor(String author) {
+        return authorIndex.search(author);
+    }
+
+    /**
+     * Titles whose title contains the given fragment, ignoring case.
+     */
+    Set<Title> titlesByTitle(String title) {
+        return titleIndex.search(title);
+    }
+
+    /**
+     * Titles in the library published between both years, inclusive.
+     */
+    Set<Title> titlesPublishedBetween(int from, int to) {
+        return yearIndex.between(from, to);
+    }
+
+    /**
+     * Estimates of the number of titles returned by the lookups above,
+     * used to plan queries.
+     */
+    int estimateTitlesByAuthor(String author) {
+        return authorIndex.estimate(author);
+    }
+
+    int estimateTitlesByTitle(String title) {
+        return titleIndex.estimate(title);
+    }
+
+    int countTitlesPublishedBetween(int from, int to) {
+        return yearIndex.count(from, to);
+    }
+
+    /**
+     * All titles with at least one copy in the library.
+     */
+    Collection<Title> allTitles() {
+        return catalog.keySet();
+    }
+
+    int totalTitles() {
+        return catalog.size();
+    }
+
+    boolean isLent(int bookId) {
+        return lentBooks.get(bookId);
+    }
+
+    int lentBookCount() {
+        return lentBookCount.get();
+    }
+
+    IntStream availableBookIds(boolean parallel) {
+        return presentBooks.andNot(lentBooks, parallel);
+    }
+
+    IntStream lentBookIds(boolean parallel) {
+        return lentBooks.stream(parallel);
+    }
+
+    /**
+     * Whether the title has copies available, or lent.
+     */
+    boolean hasCopies(Title title, boolean available) {
+        return countCopies(title, available) > 0;
+    }
+
+    /**
+     * Number of copies of the title available, or lent, from the
+     * counters of its record.
+     */
+    int countCopies(Title title, boolean available) {
+        TitleRecord record = catalog.get(title);
+        if (record == null) {
+            return 0;
+        }
+        return available ? record.availableCopies() : record.lentCopies();
+    }
+
+    Collection<Book> copiesOf(Title title) {
+        TitleRecord record = catalog.get(title);
+        return record != null ? record.copies() : Collections.emptyList();
+    }
+
+    /**
+     * Returns the book with the given id, or throws a
+     * NoSuchElementException if it doesn't exist.
+     */
+    private Book existingBook(int bookId) {
+        Book book = book(bookId);
+        if (book == null) {
             throw new NoSuchElementException("book with id " + bookId + " doesn't exist in the library");
         }
+        return book;
     }
 
-    private void assertBookLent(int bookId, String message) {
-        if (!currentLendings.containsKey(bookId)) {
+    private static void assertBookLent(User borrower, int bookId, String message) {
+        if (borrower == null) {
             throw new IllegalStateException(message + ": " + bookId);
         }
     }
 
-    private void assertBookNotLent(int bookId, String message) {
-        if (currentLendings.containsKey(bookId)) {
-            throw new IllegalStateException(message + ": " + bookId);
+    private static void assertBookNotLent(Book book, String message) {
+        if (!book.isAvailable()) {
+            throw new IllegalStateException(message + ": " + book.getId());
         }
     }
 
     private int generateId() {
-        return ++lastBookId;
+        return lastBookId.incrementAndGet();
+    }
+
+    private Object lockFor(int bookId) {
+        return locks[stripeOf(bookId)];
+    }
+
+    private static int stripeOf(int bookId) {
+        return bookId & (LOCK_STRIPES - 1);
+    }
+
+    /**
+     * Returns the record of the given title, creating it
+     * and indexing the title if it's new to the catalog.
+     */
+    private TitleRecord getTitleRecord(Title title) {
+        TitleRecord record = catalog.get(title);
+        if (record != null) {
+            return record;
+        }
+        Title canonical = new Title(title.getTitle(), internAuthor(title.getAuthor()), title.getYear());
+        return catalog.computeIfAbsent(canonical, bookTitle -> {
+            titleIndex.add(bookTitle, bookTitle.getTitle());
+            authorIndex.add(bookTitle, bookTitle.getAuthor());
+            yearIndex.add(bookTitle);
+            return new TitleRecord(bookTitle, changedTitles, this::book);
+        });
     }
 
-    private Title getTitle(String title, String author, int year) {
-        Title bookTitle = new Title(title, author, year);
-        catalog.add(bookTitle);
-        return bookTitle;
+    /**
+     * Returns the author's name shared by all titles of the author.
+     */
+    private String internAuthor(String author) {
+        String interned = authors.putIfAbsent(author, author);
+        return interned != null ? interned : author;
+    }
+
+    /**
+     * Drops an empty record from the catalog and the indexes.
+     * It happens atomically with respect to `getTitleRecord`,
+     * so a record created concurrently for the same title stays indexed.
+     */
+    private void removeTitleRecord(TitleRecord record) {
+        record.markRemoved();
+        catalog.computeIfPresent(record.getTitle(), (title, current) -> {
+            if (current != record) {
+                return current;
+            }
+            titleIndex.remove(title);
+            authorIndex.remove(title);
+            yearIndex.remove(title);
+            return null;
+        });
+    }
+
+    /**
+     * Notifies many listeners of each change, in the order they were added.
+     */
+    private static final class Listeners implements MutationListener {
+
+        private final MutationListener[] listeners;
+
+        Listeners(MutationListener[] listeners) {
+            this.listeners = listeners;
+        }
+
+        MutationListener with(MutationListener added) {
+            MutationListener[] grown = Arrays.copyOf(listeners, listeners.length + 1);
+            grown[listeners.length] = added;
+            return new Listeners(grown);
+        }
+
+        MutationListener without(MutationListener removed) {
+            List<MutationListener> kept = new ArrayList<>(Arrays.asList(listeners));
+            kept.remove(removed);
+            return kept.size() == 1 ? kept.get(0) : new Listeners(kept.toArray(new MutationListener[0]));
+        }
+
+        @Override
+        public void bookAdded(Book book) {
+            for (MutationListener listener : listeners) {
+                listener.bookAdded(book);
+            }
+        }
+
+        @Override
+        public void bookRemoved(Book book) {
+            for (MutationListener listener : listeners) {
+                listener.bookRemoved(book);
+            }
+        }
+
+        @Override
+        public void bookLent(Book book) {
+            for (MutationListener listener : listeners) {
+                listener.bookLent(book);
+            }
+        }
+
+        @Override
+        public void bookReturned(Book book, User borrower, long returnedAt) {
+            for (MutationListener listener : listeners) {
+                listener.bookReturned(book, borrower, returnedAt);
+            }
+        }
+
+        @Override
+        public void userRegistered(User user) {
+            for (MutationListener listener : listeners) {
+                listener.userRegistered(user);
+            }
+        }
+    }
+
+    /**
+     * Settings of a library.
+     */
+    public static class Builder {
+
+        private int historySegmentsInMemory = LendingHistory.UNLIMITED_SEGMENTS;
+        private Path historySpillDirectory;
+        private int loanLimit = Integer.MAX_VALUE;
+        private Duration loanPeriod = DEFAULT_LOAN_PERIOD;
+        private Clock clock = Clock.systemDefaultZone();
+        private LibraryMetrics metrics = LibraryMetrics.NONE;
+
+        private Builder() {
+        }
+
+        /**
+         * Keeps at most the given number of segments of the lending history
+         * in memory. A segment holds 65536 lendings. Older segments are
+         * spilled to the spill directory, if set, or discarded otherwise.
+         * By default the whole history is kept in memory.
+         */
+        public Builder historySegmentsInMemory(int segments) {
+            if (segments < 1) {
+                throw new IllegalArgumentException("at least one history segment must be kept in memory");
+            }
+            this.historySegmentsInMemory = segments;
+            return this;
+        }
+
+        /**
+         * Directory where old segments of the lending history are spilled
+         * into memory-mapped files. Its contents are only meaningful to
+         * the running library.
+         */
+        public Builder historySpillDirectory(Path directory) {
+            this.historySpillDirectory = directory;
+            return this;
+        }
+
+        /**
+         * Most books a user can have at the same time.
+         * By default there is no limit.
+         */
+        public Builder loanLimit(int books) {
+            if (books < 1) {
+                throw new IllegalArgumentException("the loan limit must be positive");
+            }
+            this.loanLimit = books;
+            return this;
+        }
+
+        /**
+         * How long a book can be kept before it is overdue.
+         * By default 30 days.
+         */
+        public Builder loanPeriod(Duration period) {
+            if (period.isNegative() || period.isZero()) {
+                throw new IllegalArgumentException("the loan period must be positive");
+            }
+            this.loanPeriod = period;
+            return this;
+        }
+
+        /**
+         * Clock that timestamps lendings and returns, in the local time
+         * of the clock's zone. By default the system clock, in the
+         * default time zone.
+         */
+        public Builder clock(Clock clock) {
+            this.clock = Objects.requireNonNull(clock);
+            return this;
+        }
+
+        /**
+         * Receives the timings of the operations of the library, for
+         * instance a `MetricsRecorder`. By default nothing is recorded.
+         */
+        public Builder metrics(LibraryMetrics metrics) {
+            this.metrics = Objects.requireNonNull(metrics);
+            return this;
+        }
+
+        public Library build() {
+            return new Library(this);
+        }
     }
 }
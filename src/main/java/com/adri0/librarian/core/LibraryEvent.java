@@ -0,0 +1,87 @@
+package com.adri0.librarian.core;
+
+import java.time.LocalDateTime;
+
+/**
+ * A change applied to a library, as delivered by an `EventStream`.
+ *
+ * Events live in the slots of the stream's ring buffer and are reused
+ * once every consumer is done with them, so an event must only be read
+ * while the batch it was delivered in is being consumed. Keep what's
+ * needed out of it, not the event itself.
+ */
+public final class LibraryEvent {
+
+    /**
+     * Kinds of changes.
+     */
+    public enum Type {
+        BOOK_ADDED,
+        BOOK_REMOVED,
+        BOOK_LENT,
+        BOOK_RETURNED
+    }
+
+    private long sequence;
+    private Type type;
+    private Book book;
+    private User user;
+    private long time;
+    private long dueAt;
+
+    LibraryEvent() {
+    }
+
+    void set(long sequence, Type type, Book book, User user, long time, long dueAt) {
+        this.sequence = sequence;
+        this.type = type;
+        this.book = book;
+        this.user = user;
+        this.time = time;
+        this.dueAt = dueAt;
+    }
+
+    /**
+     * Position of the event in its stream. Events are numbered from 0 in
+     * the order they were published, events dropped by a full stream
+     * aren't numbered.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Book getBook() {
+        return book;
+    }
+
+    /**
+     * The borrower of a book lent or returned, null for other events.
+     */
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * When a book was lent or returned, null for other events.
+     */
+    public LocalDateTime getTime() {
+        return user != null ? LendingHistory.toDateTime(time) : null;
+    }
+
+    /**
+     * When a lent book is due, null for other events.
+     */
+    public LocalDateTime getDueAt() {
+        return type == Type.BOOK_LENT ? LendingHistory.toDateTime(dueAt) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "LibraryEvent{" + sequence + ", " + type + ", bookId=" + book.getId()
+                + (user != null ? ", user=" + user.getName() + ", time=" + getTime() : "") + "}";
+    }
+}
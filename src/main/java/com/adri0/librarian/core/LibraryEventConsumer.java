@@ -0,0 +1,17 @@
+package com.adri0.librarian.core;
+
+import java.util.List;
+
+/**
+ * Consumes the events of an `EventStream`, in batches.
+ */
+@FunctionalInterface
+public interface LibraryEventConsumer {
+
+    /**
+     * Called with the events published since the previous batch, in order,
+     * on the consumer's own thread. The list and its events are only valid
+     * during the call, see `LibraryEvent`.
+     */
+    void accept(List<LibraryEvent> batch);
+}
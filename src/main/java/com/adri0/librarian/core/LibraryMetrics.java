@@ -0,0 +1,63 @@
+package com.adri0.librarian.core;
+
+/**
+ * Receives the timings of the operations of a library and the rows
+ * examined by its queries. See `Library.Builder.metrics` and
+ * `MetricsRecorder`.
+ *
+ * The library calls `start` when an operation begins and `record`
+ * with its result when the operation succeeds. Methods are called on
+ * the threads running the operations, some of them while holding locks
+ * of the library, so implementations must be fast, thread-safe and
+ * must not call back into the library.
+ *
+ * By default, a library records nothing into `NONE`, which doesn't even
+ * read the time.
+ */
+public interface LibraryMetrics {
+
+    LibraryMetrics NONE = new LibraryMetrics() {};
+
+    /**
+     * Operations of a library that are timed.
+     */
+    enum Operation {
+        LEND,
+        RETURN,
+        LEND_BATCH,
+        RETURN_BATCH,
+        TITLE_OVERVIEW,
+        LIST_ALL_TITLES,
+        QUERY
+    }
+
+    /**
+     * Called when an operation begins. Returns the time passed back to
+     * `record`, in nanoseconds of `System.nanoTime`.
+     */
+    default long start() {
+        return 0;
+    }
+
+    /**
+     * Called when an operation that started at the given time succeeded.
+     */
+    default void record(Operation operation, long start) {
+    }
+
+    /**
+     * Tells whether queries should count the books they examine,
+     * which costs a little for every book.
+     */
+    default boolean countsRows() {
+        return false;
+    }
+
+    /**
+     * Called instead of `record` when a query that started at the given
+     * time was executed, with the number of books it examined, or -1 when
+     * not counted, and the number of books it returned.
+     */
+    default void recordQuery(long start, long rowsScanned, long rowsReturned) {
+    }
+}
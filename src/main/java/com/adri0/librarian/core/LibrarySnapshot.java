@@ -0,0 +1,132 @@
+package com.adri0.librarian.core;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable view of the books of a library and of which of them are
+ * lent, at a point in time. See `Library.snapshot`.
+ *
+ * Reading a snapshot doesn't lock, and it isn't affected by the books
+ * added, removed, lent or returned after it was taken, so searches and
+ * reports over it see a consistent state however long they run. Only
+ * availability is kept, the loans of lent books are the current ones.
+ */
+public final class LibrarySnapshot {
+
+    private final Library library;
+    private final long version;
+    private final IdTable<Book> books;
+    private final IdBitSet presentBooks;
+    private final IdBitSet lentBooks;
+    private final int totalBooks;
+    private final int lentBookCount;
+
+    LibrarySnapshot(Library library, long version, IdTable<Book> books, IdBitSet presentBooks,
+                    IdBitSet lentBooks, int totalBooks, int lentBookCount) {
+        this.library = library;
+        this.version = version;
+        this.books = books;
+        this.presentBooks = presentBooks;
+        this.lentBooks = lentBooks;
+        this.totalBooks = totalBooks;
+        this.lentBookCount = lentBookCount;
+    }
+
+    /**
+     * Snapshots taken after the library changed have greater versions.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the book with the given id, if it was in the library
+     * when the snapshot was taken, or null.
+     */
+    public Book getBook(int bookId) {
+        return presentBooks.get(bookId) ? library.snapshotBook(books, bookId) : null;
+    }
+
+    public boolean containsBook(int bookId) {
+        return presentBooks.get(bookId);
+    }
+
+    /**
+     * Whether the book was in the library and not lent.
+     */
+    public boolean isAvailable(int bookId) {
+        return presentBooks.get(bookId) && !lentBooks.get(bookId);
+    }
+
+    public int totalBooks() {
+        return totalBooks;
+    }
+
+    public int totalLentBooks() {
+        return lentBookCount;
+    }
+
+    /**
+     * Initiates a query over the snapshot, like `Library.search`.
+     * Clauses filter the books of the snapshot, and availability
+     * is read from the bitmap of its lent books.
+     */
+    public Query search() {
+        return new Query(this);
+    }
+
+    boolean isLent(int bookId) {
+        return lentBooks.get(bookId);
+    }
+
+    IntStream availableBookIds(boolean parallel) {
+        return presentBooks.andNot(lentBooks, parallel);
+    }
+
+    IntStream lentBookIds(boolean parallel) {
+        return lentBooks.stream(parallel);
+    }
+
+    IdTable<Book> books() {
+        return books;
+    }
+
+    IdBitSet presentBooks() {
+        return presentBooks;
+    }
+
+    IdBitSet lentBooks() {
+        return lentBooks;
+    }
+
+    /**
+     * The books of the snapshot in id order. Its spliterator splits
+     * the ids into ranges like the bitmap of the books.
+     */
+    Collection<Book> allBooks() {
+        return new AbstractCollection<Book>() {
+            @Override
+            public Iterator<Book> iterator() {
+                return stream().iterator();
+            }
+
+            @Override
+            public Spliterator<Book> spliterator() {
+                return presentBooks.stream(false)
+                        .mapToObj(bookId -> library.snapshotBook(books, bookId))
+                        .filter(Objects::nonNull)
+                        .spliterator();
+            }
+
+            @Override
+            public int size() {
+                return totalBooks;
+            }
+        };
+    }
+}
@@ -0,0 +1,265 @@
+package com.adri0.librarian.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a library on disk, so it survives restarts.
+ *
+ * Every change applied to the library is appended to a write-ahead log.
+ * The log is flushed and forced to disk in batches, every flush interval
+ * or when `sync` is called, so lending and returning books don't wait for
+ * the disk. Once enough changes have been logged, a snapshot of the whole
+ * library is written and the log starts over.
+ *
+ * Opening a store restores the last snapshot and replays the log written
+ * after it. Changes that weren't flushed before a crash are lost, callers
+ * that can't afford that must call `sync` after changing the library.
+ *
+ * Users are restored with their ids, see `Library.registerUser`.
+ */
+public class LibraryStore implements Closeable {
+
+    private static final String SNAPSHOT_FILE = "library.snapshot";
+    private static final String LOG_PREFIX = "library-";
+    private static final String LOG_SUFFIX = ".log";
+
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 50;
+    private static final long DEFAULT_CHECKPOINT_EVERY = 1_000_000;
+
+    private final Path directory;
+    private final Library library;
+    private final WriteAheadLog log;
+    private final long checkpointEvery;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Generation of the current log file, guarded by `this`.
+     */
+    private long generation;
+    private long recordsAtCheckpoint;
+    private volatile IOException backgroundFailure;
+
+    private LibraryStore(Path directory, Library library, long generation,
+            long flushIntervalMillis, long checkpointEvery) throws IOException {
+        this.directory = directory;
+        this.library = library;
+        this.generation = generation;
+        this.checkpointEvery = checkpointEvery;
+        this.log = new WriteAheadLog(logFile(generation));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-store-" + directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        library.addListener(log);
+        scheduler.scheduleWithFixedDelay(this::flushInBackground,
+                flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the store kept in the given directory, creating it if needed.
+     */
+    public static LibraryStore open(Path directory) throws IOException {
+        return open(directory, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_CHECKPOINT_EVERY);
+    }
+
+    /**
+     * Opens the store kept in the given directory, creating it if needed,
+     * restoring it into a library with the given settings.
+     */
+    public static LibraryStore open(Path directory, Library.Builder settings) throws IOException {
+        return open(directory, settings, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_CHECKPOINT_EVERY);
+    }
+
+    /**
+     * Opens the store kept in the given directory, creating it if needed.
+     * The log is forced to disk every `flushIntervalMillis` and a snapshot
+     * is written after every `checkpointEvery` logged changes.
+     */
+    public static LibraryStore open(Path directory, long flushIntervalMillis, long checkpointEvery)
+            throws IOException {
+        return open(directory, Library.builder(), flushIntervalMillis, checkpointEvery);
+    }
+
+    private static LibraryStore open(Path directory, Library.Builder settings,
+            long flushIntervalMillis, long checkpointEvery) throws IOException {
+        if (flushIntervalMillis <= 0 || checkpointEvery <= 0) {
+            throw new IllegalArgumentException("flush interval and checkpoint frequency must be positive");
+        }
+        Files.createDirectories(directory);
+        Library library = settings.build();
+        Map<Integer, User> users = new HashMap<>();
+
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        long generation = Files.exists(snapshot) ? SnapshotFile.read(snapshot, library, users) : 0;
+        long lastGeneration = generation;
+        for (long logGeneration : logGenerations(directory)) {
+            if (logGeneration < generation) {
+                Files.delete(logFile(directory, logGeneration));
+                continue;
+            }
+            WriteAheadLog.replay(logFile(directory, logGeneration), new Recovery(library, users));
+            lastGeneration = logGeneration;
+        }
+        return new LibraryStore(directory, library, lastGeneration, flushIntervalMillis, checkpointEvery);
+    }
+
+    public Library getLibrary() {
+        return library;
+    }
+
+    /**
+     * Forces every change applied so far to disk.
+     */
+    public void sync() throws IOException {
+        throwBackgroundFailure();
+        log.flush();
+    }
+
+    /**
+     * Writes a snapshot of the library and starts a new log after it.
+     * The library is only blocked while the log is rotated and its state
+     * is frozen, which doesn't copy it. The state is encoded afterwards,
+     * while the library keeps changing, see `CheckpointImage`.
+     */
+    public synchronized void checkpoint() throws IOException {
+        long nextGeneration = generation + 1;
+        CheckpointImage[] image = new CheckpointImage[1];
+        try {
+            library.exclusively(() -> {
+                try {
+                    log.rotate(logFile(nextGeneration));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                image[0] = library.freezeCheckpoint();
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        byte[] snapshot;
+        try {
+            snapshot = SnapshotFile.encode(library, image[0], nextGeneration);
+        } finally {
+            library.releaseCheckpoint(image[0]);
+        }
+        SnapshotFile.write(directory.resolve(SNAPSHOT_FILE), snapshot);
+        Files.deleteIfExists(logFile(generation));
+        generation = nextGeneration;
+        recordsAtCheckpoint = log.appendedRecords();
+    }
+
+    /**
+     * Flushes pending changes and stops persisting the library.
+     * The library stays usable, but further changes are kept in memory only.
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        library.removeListener(log);
+        log.close();
+        throwBackgroundFailure();
+    }
+
+    private void flushInBackground() {
+        try {
+            log.flush();
+            boolean checkpointDue;
+            synchronized (this) {
+                checkpointDue = log.appendedRecords() - recordsAtCheckpoint >= checkpointEvery;
+            }
+            if (checkpointDue) {
+                checkpoint();
+            }
+        } catch (IOException e) {
+            backgroundFailure = e;
+        }
+    }
+
+    private void throwBackgroundFailure() throws IOException {
+        IOException failure = backgroundFailure;
+        if (failure != null) {
+            throw new IOException("library store failed in background", failure);
+        }
+    }
+
+    private Path logFile(long logGeneration) {
+        return logFile(directory, logGeneration);
+    }
+
+    private static Path logFile(Path directory, long logGeneration) {
+        return directory.resolve(LOG_PREFIX + logGeneration + LOG_SUFFIX);
+    }
+
+    private static List<Long> logGenerations(Path directory) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, LOG_PREFIX + "*" + LOG_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                generations.add(Long.parseLong(
+                        name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length())));
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    /**
+     * Applies the changes read back from a log to the library being restored.
+     */
+    private static class Recovery implements WriteAheadLog.Replay {
+
+        private final Library library;
+        private final Map<Integer, User> users;
+
+        Recovery(Library library, Map<Integer, User> users) {
+            this.library = library;
+            this.users = users;
+        }
+
+        @Override
+        public void bookAdded(int bookId, Title title) {
+            library.restoreBook(bookId, title);
+        }
+
+        @Override
+        public void bookRemoved(int bookId) {
+            library.removeBook(bookId);
+        }
+
+        @Override
+        public void bookLent(int bookId, int userId, long lentAt, long dueAt) {
+            User user = users.get(userId);
+            if (user == null) {
+                throw new IllegalStateException("book " + bookId + " lent to unknown user " + userId);
+            }
+            library.restoreLending(bookId, user, lentAt, dueAt);
+        }
+
+        @Override
+        public void bookReturned(int bookId, long returnedAt) {
+            library.restoreReturn(bookId, returnedAt);
+        }
+
+        @Override
+        public void userRegistered(int userId, String name) {
+            User user = new User(userId, name);
+            users.put(userId, user);
+            library.restoreUser(user);
+        }
+    }
+}
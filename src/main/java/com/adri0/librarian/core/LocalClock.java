@@ -0,0 +1,59 @@
+package com.adri0.librarian.core;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Reads the local time of a `Clock` as milliseconds, the way the library
+ * keeps timestamps, see `LendingHistory.toMillis`.
+ *
+ * The offset of the clock's zone is cached until the zone's next
+ * transition, so reading the time neither looks up the zone rules
+ * nor allocates, unless the offset changes.
+ */
+final class LocalClock {
+
+    private final Clock clock;
+    private volatile Offset offset;
+
+    LocalClock(Clock clock) {
+        this.clock = clock;
+        this.offset = offsetAt(clock.millis());
+    }
+
+    long millis() {
+        long millis = clock.millis();
+        Offset offset = this.offset;
+        if (millis < offset.from || millis >= offset.until) {
+            offset = offsetAt(millis);
+            this.offset = offset;
+        }
+        return millis + offset.millis;
+    }
+
+    private Offset offsetAt(long millis) {
+        ZoneRules rules = clock.getZone().getRules();
+        Instant instant = Instant.ofEpochMilli(millis);
+        ZoneOffsetTransition next = rules.nextTransition(instant);
+        long until = next != null ? next.getInstant().toEpochMilli() : Long.MAX_VALUE;
+        return new Offset(millis, until, rules.getOffset(instant).getTotalSeconds() * 1000L);
+    }
+
+    /**
+     * Offset of the zone within [from, until).
+     */
+    private static final class Offset {
+
+        final long from;
+        final long until;
+        final long millis;
+
+        Offset(long from, long until, long millis) {
+            this.from = from;
+            this.until = until;
+            this.millis = millis;
+        }
+    }
+}
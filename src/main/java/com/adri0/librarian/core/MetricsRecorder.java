@@ -0,0 +1,72 @@
+package com.adri0.librarian.core;
+
+/**
+ * Metrics kept in memory: a latency histogram for each operation of
+ * the library, in nanoseconds, and histograms of the books examined
+ * and returned by each query. See `LibraryMetrics`.
+ *
+ * Recording takes a couple of reads of the time and a few atomic
+ * increments, and doesn't allocate. Use `JmxExporter` to publish
+ * the metrics of a library.
+ */
+public final class MetricsRecorder implements LibraryMetrics {
+
+    private final Histogram[] latencies;
+    private final Histogram rowsScanned;
+    private final Histogram rowsReturned;
+
+    public MetricsRecorder() {
+        this.latencies = new Histogram[Operation.values().length];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new Histogram();
+        }
+        this.rowsScanned = new Histogram();
+        this.rowsReturned = new Histogram();
+    }
+
+    @Override
+    public long start() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void record(Operation operation, long start) {
+        latencies[operation.ordinal()].record(System.nanoTime() - start);
+    }
+
+    @Override
+    public boolean countsRows() {
+        return true;
+    }
+
+    @Override
+    public void recordQuery(long start, long rowsScanned, long rowsReturned) {
+        record(Operation.QUERY, start);
+        if (rowsScanned >= 0) {
+            this.rowsScanned.record(rowsScanned);
+        }
+        this.rowsReturned.record(rowsReturned);
+    }
+
+    /**
+     * Latencies of the successful runs of an operation, in nanoseconds.
+     * Its count is the number of runs.
+     */
+    public Histogram getLatencies(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    /**
+     * Number of books examined by each query.
+     */
+    public Histogram getRowsScanned() {
+        return rowsScanned;
+    }
+
+    /**
+     * Number of books returned by each query.
+     */
+    public Histogram getRowsReturned() {
+        return rowsReturned;
+    }
+}
@@ -0,0 +1,39 @@
+package com.adri0.librarian.core;
+
+/**
+ * Receives every change applied to a library.
+ * Methods are called while the library holds the lock of the
+ * changed book, so changes of a book are seen in the order they
+ * were applied. Implementations must be fast and must not call
+ * back into the library.
+ */
+interface MutationListener {
+
+    MutationListener NONE = new MutationListener() {};
+
+    default void bookAdded(Book book) {
+    }
+
+    default void bookRemoved(Book book) {
+    }
+
+    /**
+     * Called when a book is lent. The loan is read from the book,
+     * see `Book.getBorrower`.
+     */
+    default void bookLent(Book book) {
+    }
+
+    /**
+     * Called when a book is returned, after its loan by the given
+     * borrower has been cleared from the book.
+     */
+    default void bookReturned(Book book, User borrower, long returnedAt) {
+    }
+
+    /**
+     * Called when a user is registered, before any change referring to the user.
+     */
+    default void userRegistered(User user) {
+    }
+}
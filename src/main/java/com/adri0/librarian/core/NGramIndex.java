@@ -0,0 +1,143 @@
+package com.adri0.librarian.core;
+
+import java.util.*;
+
+/**
+ * Inverted trigram index used to resolve case-insensitive substring
+ * searches without scanning every indexed value.
+ *
+ * Each value is indexed by the trigrams of its normalized (lowercase) text.
+ * A search looks up the trigrams of the fragment, intersects their postings
+ * starting from the rarest one and finally verifies the remaining candidates
+ * with a plain `contains`, so results match `text.toLowerCase().contains(...)`.
+ * Fragments shorter than a trigram fall back to checking every indexed value.
+ *
+ * All methods synchronize on the index, results are copies.
+ */
+class NGramIndex<T> {
+
+    private static final int GRAM_SIZE = 3;
+
+    /**
+     * Maps a trigram to all values whose text contains it.
+     */
+    private final Map<String, Set<T>> postings;
+
+    /**
+     * Normalized text of every indexed value, used to verify candidates.
+     */
+    private final Map<T, String> normalizedText;
+
+    NGramIndex() {
+        this.postings = new HashMap<>();
+        this.normalizedText = new HashMap<>();
+    }
+
+    static String normalize(String text) {
+        return text.toLowerCase();
+    }
+
+    synchronized void add(T value, String text) {
+        String normalized = normalize(text);
+        if (normalizedText.putIfAbsent(value, normalized) != null) {
+            return;
+        }
+        for (String gram : grams(normalized)) {
+            postings.computeIfAbsent(gram, key -> new HashSet<>()).add(value);
+        }
+    }
+
+    synchronized void remove(T value) {
+        String normalized = normalizedText.remove(value);
+        if (normalized == null) {
+            return;
+        }
+        for (String gram : grams(normalized)) {
+            Set<T> values = postings.get(gram);
+            if (values != null) {
+                values.remove(value);
+                if (values.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns all indexed values whose text contains the given
+     * fragment, ignoring case.
+     */
+    synchronized Set<T> search(String fragment) {
+        String normalized = normalize(fragment);
+        if (normalized.length() < GRAM_SIZE) {
+            return verify(normalizedText.keySet(), normalized);
+        }
+        List<Set<T>> candidates = new ArrayList<>();
+        for (String gram : grams(normalized)) {
+            Set<T> values = postings.get(gram);
+            if (values == null) {
+                return Collections.emptySet();
+            }
+            candidates.add(values);
+        }
+        candidates.sort(Comparator.comparingInt(Set::size));
+        Set<T> result = new HashSet<>();
+        for (T value : candidates.get(0)) {
+            if (inAll(value, candidates) && normalizedText.get(value).contains(normalized)) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Upper bound of the number of values a search of the fragment
+     * returns: the size of its rarest trigram's postings.
+     */
+    synchronized int estimate(String fragment) {
+        String normalized = normalize(fragment);
+        if (normalized.length() < GRAM_SIZE) {
+            return normalizedText.size();
+        }
+        int estimate = normalizedText.size();
+        for (String gram : grams(normalized)) {
+            Set<T> values = postings.get(gram);
+            if (values == null) {
+                return 0;
+            }
+            estimate = Math.min(estimate, values.size());
+        }
+        return estimate;
+    }
+
+    synchronized int size() {
+        return normalizedText.size();
+    }
+
+    private Set<T> verify(Collection<T> values, String normalized) {
+        Set<T> result = new HashSet<>();
+        for (T value : values) {
+            if (normalizedText.get(value).contains(normalized)) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    private static <T> boolean inAll(T value, List<Set<T>> candidates) {
+        for (int i = 1; i < candidates.size(); i++) {
+            if (!candidates.get(i).contains(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> grams(String normalized) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_SIZE <= normalized.length(); i++) {
+            grams.add(normalized.substring(i, i + GRAM_SIZE));
+        }
+        return grams;
+    }
+}
@@ -0,0 +1,66 @@
+package com.adri0.librarian.core;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Calls back with the lendings of a library as they become overdue.
+ * See `Library.watchOverdue`.
+ *
+ * Every interval, the watch asks the library for the lendings that
+ * became due since its previous check and passes them to the callback,
+ * by due date, on the watch's own thread and without holding any lock
+ * of the library. Lendings that were already overdue when the watch
+ * started are not reported, use `Library.getOverdueLendings` for those.
+ * If the callback throws, the watch stops.
+ */
+public final class OverdueWatch implements Closeable {
+
+    private final Library library;
+    private final Consumer<Lending> callback;
+    private final ScheduledExecutorService scheduler;
+    private long lastCheck;
+
+    OverdueWatch(Library library, Consumer<Lending> callback, Duration interval) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("the interval must be positive");
+        }
+        this.library = library;
+        this.callback = callback;
+        this.lastCheck = library.clockMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-overdue-watch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::check, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void check() {
+        long now = library.clockMillis();
+        for (Lending lending : library.dueBetween(lastCheck, now)) {
+            if (lending.returnedAtMillis() == LendingHistory.NOT_RETURNED) {
+                callback.accept(lending);
+            }
+        }
+        lastCheck = now;
+    }
+
+    /**
+     * Stops watching. A check in progress is completed first.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
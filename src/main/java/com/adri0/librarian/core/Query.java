@@ -1,46 +1,903 @@
 package com.adri0.librarian.core;
 
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 
 /**
  * A query object is instantiated when `Library.search()` method is used. The actual
  * search is only performed when the method `execute` is called.
+ *
+ * Clauses are only recorded as they are chained. When the query is executed,
+ * they are planned by estimated cost and selectivity, regardless of the order
+ * they were chained in:
+ *
+ * - When created by a library, the most selective author, title or year clause
+ *   is resolved through the library's indexes into candidate titles, and only
+ *   the copies of those titles are visited. Other clauses that only depend on
+ *   the title are checked once per title rather than once per copy, and titles
+ *   without copies of the requested availability are skipped.
+ * - When an availability clause is more selective, the ids of the available
+ *   or lent books are read from the library's bitmaps instead, a word of 64
+ *   books at a time.
+ * - Remaining clauses are checked cheapest first, and arbitrary predicates
+ *   last, in the order they were chained.
+ * - Otherwise every book is scanned.
+ *
+ * A query over a `LibrarySnapshot` scans the books of the snapshot, or reads
+ * the available or lent ones from its bitmaps, and checks the other clauses
+ * on each book.
+ *
+ * `explain` describes the chosen plan. `facetBy` counts the matches by
+ * author, year, decade or availability instead of returning them.
+ *
+ * Results can be ordered and paginated, either by offset or with a cursor,
+ * see `after`. When a limit is set, ordered results are picked with a heap
+ * bounded by the page, rather than by sorting every match. `count` and
+ * `stream` don't collect the matches.
+ *
+ * A query can opt into parallel execution with `parallel`. Queries examining
+ * fewer than `PARALLEL_THRESHOLD` books still run sequentially. A parallel
+ * query sees the library like a sequential one: each book is examined once,
+ * in the state it has when examined, while other threads may keep lending,
+ * returning, adding and removing books.
  */
 public class Query {
 
-    private Stream<Book> queryStream;
+    private static final int YEAR_COST = 1;
+    private static final int AVAILABILITY_COST = 1;
+    private static final int TEXT_COST = 10;
+    private static final int PREDICATE_COST = 100;
+
+    /**
+     * Least number of books examined for a parallel query to run in parallel.
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 14;
+
+    /**
+     * The books to scan when not searching a library, see `scannedBooks`.
+     */
+    private final Collection<Book> books;
+    private final Library library;
+    private final LibrarySnapshot snapshot;
+    private final List<Clause> clauses;
+    private Comparator<Book> order;
+    private final List<String> orderDescription;
+    private Book cursor;
+    private long offset;
+    private long limit;
+    private ForkJoinPool pool;
+
+    /**
+     * Fields results can be ordered by.
+     */
+    public enum Order {
+        TITLE(Comparator.comparing(Book::getTitle)),
+        AUTHOR(Comparator.comparing(Book::getAuthor)),
+        YEAR(Comparator.comparingInt(Book::getYear)),
+        ID(Comparator.comparingInt(Book::getId));
+
+        private final Comparator<Book> comparator;
+
+        Order(Comparator<Book> comparator) {
+            this.comparator = comparator;
+        }
+    }
 
     Query(Collection<Book> bookSet) {
-        this.queryStream = bookSet.stream();
+        this.books = bookSet;
+        this.library = null;
+        this.snapshot = null;
+        this.clauses = new ArrayList<>();
+        this.orderDescription = new ArrayList<>();
+        this.limit = Long.MAX_VALUE;
+    }
+
+    Query(Library library) {
+        this.books = null;
+        this.library = library;
+        this.snapshot = null;
+        this.clauses = new ArrayList<>();
+        this.orderDescription = new ArrayList<>();
+        this.limit = Long.MAX_VALUE;
+    }
+
+    Query(LibrarySnapshot snapshot) {
+        this.books = snapshot.allBooks();
+        this.library = null;
+        this.snapshot = snapshot;
+        this.clauses = new ArrayList<>();
+        this.orderDescription = new ArrayList<>();
+        this.limit = Long.MAX_VALUE;
     }
 
     public Query by(Predicate<Book> predicate) {
-        queryStream = queryStream.filter(predicate);
+        clauses.add(new BookClause("predicate", PREDICATE_COST, predicate));
         return this;
     }
 
     public Query byAuthor(String author) {
-        return by(book -> book.getAuthor().toLowerCase().contains(author.toLowerCase()));
+        clauses.add(new TextClause("author", Title::getAuthor, author,
+                Library::titlesByAuthor, Library::estimateTitlesByAuthor));
+        return this;
     }
 
     public Query byTitle(String title) {
-        return by(book -> book.getTitle().toLowerCase().contains(title.toLowerCase()));
+        clauses.add(new TextClause("title", Title::getTitle, title,
+                Library::titlesByTitle, Library::estimateTitlesByTitle));
+        return this;
     }
 
     public Query byYear(int year) {
-        return by(book -> book.getYear() == year);
+        return byYearRange(year, year);
+    }
+
+    /**
+     * Books published between both years, inclusive.
+     */
+    public Query byYearRange(int from, int to) {
+        clauses.add(new YearClause(from, to));
+        return this;
+    }
+
+    /**
+     * Books published after the given year, excluding it.
+     */
+    public Query publishedAfter(int year) {
+        if (year == Integer.MAX_VALUE) {
+            return byYearRange(1, 0);
+        }
+        return byYearRange(year + 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Books published before the given year, excluding it.
+     */
+    public Query publishedBefore(int year) {
+        if (year == Integer.MIN_VALUE) {
+            return byYearRange(1, 0);
+        }
+        return byYearRange(Integer.MIN_VALUE, year - 1);
     }
 
     public Query byAvailability(boolean isAvailable) {
-        return by(book -> isAvailable == book.isAvailable());
+        clauses.add(new AvailabilityClause(isAvailable));
+        return this;
+    }
+
+    /**
+     * Orders the results by the given field, ascending.
+     * Further calls order the results that compare equal, and
+     * results are finally ordered by bookId.
+     */
+    public Query orderBy(Order field) {
+        return orderBy(field, true);
+    }
+
+    public Query orderBy(Order field, boolean ascending) {
+        Comparator<Book> comparator = ascending ? field.comparator : field.comparator.reversed();
+        order = order == null ? comparator : order.thenComparing(comparator);
+        orderDescription.add(field.name().toLowerCase() + (ascending ? "" : " desc"));
+        return this;
+    }
+
+    /**
+     * Skips the given number of results.
+     */
+    public Query offset(long offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must not be negative: " + offset);
+        }
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * Returns at most the given number of results.
+     */
+    public Query limit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Only returns the results that follow the given book in the order of
+     * the query, usually the last book of the previous page. Unlike an
+     * offset, the matches before the cursor don't need to be ordered, and
+     * pages stay stable when books are added or removed before the cursor.
+     * Results are ordered by bookId when no order is given.
+     */
+    public Query after(Book cursor) {
+        this.cursor = Objects.requireNonNull(cursor);
+        return this;
+    }
+
+    /**
+     * Executes the query in parallel in the common fork-join pool,
+     * when it examines enough books to be worth it.
+     */
+    public Query parallel() {
+        return parallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Executes the query in parallel in the given pool, when it examines
+     * enough books to be worth it. Only `execute`, `count` and `explain`
+     * run in the pool, see `stream`.
+     */
+    public Query parallel(ForkJoinPool pool) {
+        this.pool = Objects.requireNonNull(pool);
+        return this;
     }
 
     public List<Book> execute() {
-        return queryStream.collect(Collectors.toList());
+        LibraryMetrics metrics = library != null ? library.metrics() : LibraryMetrics.NONE;
+        long start = metrics.start();
+        if (!metrics.countsRows()) {
+            List<Book> results = inPool(() -> stream().collect(Collectors.toList()));
+            metrics.recordQuery(start, -1, results.size());
+            return results;
+        }
+        LongAdder[] examined = {new LongAdder(), new LongAdder()};
+        List<Book> results = inPool(() -> results(plan(), examined).collect(Collectors.toList()));
+        metrics.recordQuery(start, examined[1].sum(), results.size());
+        return results;
+    }
+
+    /**
+     * Executes the query lazily. Unordered results are found as the stream
+     * is consumed, so only the books needed by the stream are examined.
+     * The stream of a parallel query is parallel, and its operations run
+     * in the pool of the thread consuming it, the common pool by default.
+     */
+    public Stream<Book> stream() {
+        return results(plan(), null);
+    }
+
+    public Iterator<Book> iterator() {
+        return stream().iterator();
+    }
+
+    /**
+     * Counts the results without collecting them.
+     */
+    public long count() {
+        return inPool(() -> {
+            Stream<Book> matches = plan().books(null);
+            Comparator<Book> comparator = comparator();
+            if (cursor != null) {
+                matches = matches.filter(book -> comparator.compare(book, cursor) > 0);
+            }
+            return Math.max(0, Math.min(matches.count() - offset, limit));
+        });
+    }
+
+    /**
+     * Executes the query and describes how: the index or scan the
+     * books were found with, the filters in the order they were checked,
+     * and the number of titles and books examined.
+     */
+    public String explain() {
+        Plan plan = plan();
+        LongAdder[] examined = {new LongAdder(), new LongAdder()};
+        long returned = inPool(() -> results(plan, examined).count());
+        StringBuilder explanation = new StringBuilder();
+        if (plan.access != null && plan.access.isBitmap()) {
+            explanation.append("bitmap scan ").append(plan.access.describe())
+                    .append(" (estimated ").append(plan.accessEstimate).append(" books)\n");
+        } else if (plan.access != null) {
+            explanation.append("index lookup ").append(plan.access.describe())
+                    .append(" (estimated ").append(plan.accessEstimate).append(" titles)\n");
+        } else if (plan.scansTitles()) {
+            explanation.append("scan all titles\n");
+        } else {
+            explanation.append("scan all books\n");
+        }
+        for (Clause clause : plan.titleFilters) {
+            explanation.append("  filter titles by ").append(clause.describe()).append('\n');
+        }
+        for (Clause clause : plan.bookFilters) {
+            explanation.append("  filter books by ").append(clause.describe()).append('\n');
+        }
+        if (cursor != null) {
+            explanation.append("  after book ").append(cursor.getId()).append('\n');
+        }
+        if (isOrdered()) {
+            explanation.append(limit != Long.MAX_VALUE ? "  top " + (offset + limit) + " by " : "  sort by ")
+                    .append(orderDescription.isEmpty() ? "id" : String.join(", ", orderDescription))
+                    .append('\n');
+        }
+        if (offset > 0 || limit != Long.MAX_VALUE) {
+            explanation.append("  offset ").append(offset);
+            if (limit != Long.MAX_VALUE) {
+                explanation.append(" limit ").append(limit);
+            }
+            explanation.append('\n');
+        }
+        if (plan.parallel) {
+            explanation.append("  in parallel\n");
+        }
+        explanation.append("titles examined: ").append(examined[0].sum())
+                .append(", books examined: ").append(examined[1].sum())
+                .append(", books returned: ").append(returned);
+        return explanation.toString();
+    }
+
+    /**
+     * Counts the matches of the query by the given facets at once,
+     * without collecting them. Order, cursor and pages don't apply.
+     *
+     * When the facets are on the title or availability, and the query only
+     * has clauses on the title or availability, matches are counted once
+     * per title from the copy counters kept by the library, without
+     * visiting the books. Otherwise the matching books are visited once.
+     */
+    public FacetCounts facetBy(Facet<?>... facets) {
+        LibraryMetrics metrics = library != null ? library.metrics() : LibraryMetrics.NONE;
+        long start = metrics.start();
+        Facet<?>[] counted = facets.clone();
+        FacetCounts counts = inPool(() -> countsPerTitle(counted) ? countTitles(counted) : countBooks(counted));
+        metrics.recordQuery(start, -1, counts.getTotal());
+        return counts;
+    }
+
+    /**
+     * Counts the matches of the query by a facet, see `facetBy`.
+     */
+    public <K> Map<K, Long> countBy(Facet<K> facet) {
+        return facetBy(facet).get(facet);
+    }
+
+    private boolean countsPerTitle(Facet<?>[] facets) {
+        if (library == null) {
+            return false;
+        }
+        for (Facet<?> facet : facets) {
+            if (!facet.onTitle() && !facet.isAvailability()) {
+                return false;
+            }
+        }
+        for (Clause clause : clauses) {
+            if (!clause.onTitle() && !(clause instanceof AvailabilityClause)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts the copies of the matching titles, starting from the most
+     * selective index if any.
+     */
+    private FacetCounts countTitles(Facet<?>[] facets) {
+        boolean available = true;
+        boolean lent = true;
+        Clause access = null;
+        long accessEstimate = library.totalTitles();
+        List<Clause> titleClauses = new ArrayList<>();
+        for (Clause clause : clauses) {
+            if (clause instanceof AvailabilityClause) {
+                available &= ((AvailabilityClause) clause).available;
+                lent &= !((AvailabilityClause) clause).available;
+                continue;
+            }
+            titleClauses.add(clause);
+            if (clause.isIndexed()) {
+                long estimate = clause.estimate(library);
+                if (estimate < accessEstimate) {
+                    access = clause;
+                    accessEstimate = estimate;
+                }
+            }
+        }
+        Stream<Title> titles = access != null ? access.lookup(library).stream() : library.allTitles().stream();
+        if (pool != null && accessEstimate >= PARALLEL_THRESHOLD) {
+            titles = titles.parallel();
+        }
+        for (Clause clause : titleClauses) {
+            titles = titles.filter(clause::matches);
+        }
+        boolean countsAvailable = available;
+        boolean countsLent = lent;
+        return titles.collect(() -> new FacetCounts(facets, this::isAvailable),
+                (counts, title) -> counts.add(title,
+                        countsAvailable ? library.countCopies(title, true) : 0,
+                        countsLent ? library.countCopies(title, false) : 0),
+                FacetCounts::merge);
+    }
+
+    private FacetCounts countBooks(Facet<?>[] facets) {
+        return plan().books(null).collect(() -> new FacetCounts(facets, this::isAvailable),
+                FacetCounts::add, FacetCounts::merge);
+    }
+
+    /**
+     * Whether a book is available, as seen by the library or snapshot
+     * searched, if any.
+     */
+    private boolean isAvailable(Book book) {
+        if (library != null) {
+            return !library.isLent(book.getId());
+        }
+        if (snapshot != null) {
+            return !snapshot.isLent(book.getId());
+        }
+        return book.isAvailable();
+    }
+
+    /**
+     * All books of the library, only asked for when they are scanned,
+     * since that materializes the copies of a mapped catalog.
+     */
+    private Collection<Book> scannedBooks() {
+        return library != null ? library.allBooks() : books;
+    }
+
+    private boolean isOrdered() {
+        return order != null || cursor != null;
+    }
+
+    private Comparator<Book> comparator() {
+        Comparator<Book> byId = Order.ID.comparator;
+        return order != null ? order.thenComparing(byId) : byId;
+    }
+
+    /**
+     * Applies the cursor, order and page of the query to the matches of the plan.
+     */
+    private Stream<Book> results(Plan plan, LongAdder[] examined) {
+        Stream<Book> matches = plan.books(examined);
+        if (!isOrdered()) {
+            return page(matches);
+        }
+        Comparator<Book> comparator = comparator();
+        if (cursor != null) {
+            matches = matches.filter(book -> comparator.compare(book, cursor) > 0);
+        }
+        if (limit == Long.MAX_VALUE || offset + limit > Integer.MAX_VALUE) {
+            return page(matches.sorted(comparator));
+        }
+        return page(top(matches, comparator, (int) (offset + limit)).stream());
+    }
+
+    private Stream<Book> page(Stream<Book> results) {
+        if (!isOrdered() && results.isParallel()) {
+            results = results.unordered();
+        }
+        if (offset > 0) {
+            results = results.skip(offset);
+        }
+        return limit != Long.MAX_VALUE ? results.limit(limit) : results;
+    }
+
+    /**
+     * Returns the first `k` books in the given order, keeping only
+     * the best `k` books seen so far in a heap. Parallel streams fill
+     * a heap per task and merge them.
+     */
+    private static List<Book> top(Stream<Book> books, Comparator<Book> comparator, int k) {
+        if (k == 0) {
+            return Collections.emptyList();
+        }
+        List<Book> top = new ArrayList<>(books.collect(
+                () -> new PriorityQueue<>(Math.min(k, 1024), comparator.reversed()),
+                (heap, book) -> offer(heap, book, comparator, k),
+                (heap, other) -> other.forEach(book -> offer(heap, book, comparator, k))));
+        top.sort(comparator);
+        return top;
+    }
+
+    private static void offer(PriorityQueue<Book> heap, Book book, Comparator<Book> comparator, int k) {
+        if (heap.size() < k) {
+            heap.add(book);
+        } else if (comparator.compare(book, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(book);
+        }
+    }
+
+    /**
+     * Runs a terminal operation in the pool of a parallel query, so its
+     * parallel streams are split across that pool.
+     */
+    private <T> T inPool(Supplier<T> operation) {
+        if (pool == null || pool == ForkJoinPool.commonPool()) {
+            return operation.get();
+        }
+        return pool.submit(operation::get).join();
+    }
+
+    /**
+     * Chooses the index to start from and the order of the remaining clauses.
+     */
+    private Plan plan() {
+        Plan plan = new Plan();
+        Map<Clause, Double> selectivity = new IdentityHashMap<>();
+        int totalTitles = library != null ? library.totalTitles() : 0;
+        int totalBooks = library != null ? library.totalBooks() : books.size();
+        boolean hasTitleClauses = false;
+        for (Clause clause : clauses) {
+            hasTitleClauses |= clause.onTitle();
+            if (library == null || !clause.isIndexed()) {
+                continue;
+            }
+            long estimate = clause.estimate(library);
+            selectivity.put(clause, totalTitles > 0 ? (double) estimate / totalTitles : 0);
+            if (estimate < totalTitles && (plan.access == null || estimate < plan.accessEstimate)) {
+                plan.access = clause;
+                plan.accessEstimate = estimate;
+            }
+        }
+        long booksPerTitle = totalBooks / Math.max(1, totalTitles) + 1;
+        long booksExamined = plan.access != null ? plan.accessEstimate * booksPerTitle
+                : hasTitleClauses && library != null ? totalTitles : totalBooks;
+        for (Clause clause : clauses) {
+            if (library == null && snapshot == null || !clause.isBitmap()) {
+                continue;
+            }
+            long estimate = clause.estimate(library);
+            selectivity.put(clause, totalBooks > 0 ? (double) estimate / totalBooks : 0);
+            if (estimate <= booksExamined) {
+                plan.access = clause;
+                plan.accessEstimate = estimate;
+                booksExamined = estimate;
+            }
+        }
+        boolean visitsTitles = library != null && (plan.access != null ? !plan.access.isBitmap() : hasTitleClauses);
+        for (Clause clause : clauses) {
+            if (clause == plan.access) {
+                continue;
+            }
+            if (clause.onTitle() && visitsTitles) {
+                plan.titleFilters.add(clause);
+                continue;
+            }
+            plan.bookFilters.add(clause);
+            if (clause.isBitmap() && visitsTitles) {
+                plan.titleFilters.add(new TitleAvailabilityClause((AvailabilityClause) clause));
+            }
+        }
+        Comparator<Clause> byRank = Comparator.comparingDouble(
+                clause -> clause.cost() / (1 - Math.min(selectivity.getOrDefault(clause, 0.5), 0.99)));
+        plan.titleFilters.sort(byRank);
+        plan.bookFilters.sort(byRank);
+        plan.parallel = pool != null && booksExamined >= PARALLEL_THRESHOLD;
+        return plan;
+    }
+
+    /**
+     * Plan of a query. Filters are kept in the order they are checked.
+     */
+    private class Plan {
+
+        /**
+         * The index the books are found with, if any. Either titles
+         * are looked up in an index, or book ids are read from a bitmap.
+         */
+        Clause access;
+        long accessEstimate;
+        boolean parallel;
+        final List<Clause> titleFilters = new ArrayList<>();
+        final List<Clause> bookFilters = new ArrayList<>();
+
+        boolean scansTitles() {
+            return library != null && !titleFilters.isEmpty();
+        }
+
+        /**
+         * Streams the matching books. When given, the numbers of titles
+         * and books examined are counted into `examined`.
+         */
+        Stream<Book> books(LongAdder[] examined) {
+            Stream<Book> candidates;
+            if (access != null && access.isBitmap()) {
+                candidates = access.bookIds(library, parallel)
+                        .mapToObj(library != null ? library::getBook : snapshot::getBook)
+                        .filter(Objects::nonNull);
+            } else if (access != null || scansTitles()) {
+                Stream<Title> titles = access != null
+                        ? access.lookup(library).stream()
+                        : library.allTitles().stream();
+                if (parallel) {
+                    titles = titles.parallel();
+                }
+                if (examined != null) {
+                    titles = titles.peek(title -> examined[0].increment());
+                }
+                for (Clause clause : titleFilters) {
+                    titles = titles.filter(clause::matches);
+                }
+                candidates = titles.flatMap(title -> library.copiesOf(title).stream());
+            } else {
+                Collection<Book> scanned = scannedBooks();
+                candidates = parallel ? scanned.parallelStream() : scanned.stream();
+            }
+            if (examined != null) {
+                candidates = candidates.peek(book -> examined[1].increment());
+            }
+            for (Clause clause : bookFilters) {
+                candidates = candidates.filter(clause::matches);
+            }
+            return candidates;
+        }
+    }
+
+    /**
+     * A recorded clause of the query.
+     */
+    private abstract static class Clause {
+
+        /**
+         * Relative cost of checking the clause once.
+         */
+        abstract int cost();
+
+        abstract String describe();
+
+        /**
+         * Whether the clause only depends on the title of a book,
+         * so it can be checked once for all the copies of a title.
+         */
+        boolean onTitle() {
+            return false;
+        }
+
+        boolean matches(Title title) {
+            throw new UnsupportedOperationException();
+        }
+
+        boolean matches(Book book) {
+            return matches(book.getTitleObj());
+        }
+
+        /**
+         * Whether the titles matching the clause can be looked up in an index.
+         */
+        boolean isIndexed() {
+            return false;
+        }
+
+        /**
+         * Whether the ids of the books matching the clause can be read from a bitmap.
+         */
+        boolean isBitmap() {
+            return false;
+        }
+
+        /**
+         * Estimated number of titles, or books for bitmaps, matching the clause.
+         */
+        long estimate(Library library) {
+            throw new UnsupportedOperationException();
+        }
+
+        Set<Title> lookup(Library library) {
+            throw new UnsupportedOperationException();
+        }
+
+        IntStream bookIds(Library library, boolean parallel) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class TextClause extends Clause {
+
+        private final String field;
+        private final Function<Title, String> text;
+        private final String fragment;
+        private final String normalizedFragment;
+        private final BiFunction<Library, String, Set<Title>> lookup;
+        private final BiFunction<Library, String, Integer> estimate;
+
+        TextClause(String field, Function<Title, String> text, String fragment,
+                   BiFunction<Library, String, Set<Title>> lookup,
+                   BiFunction<Library, String, Integer> estimate) {
+            this.field = field;
+            this.text = text;
+            this.fragment = fragment;
+            this.normalizedFragment = NGramIndex.normalize(fragment);
+            this.lookup = lookup;
+            this.estimate = estimate;
+        }
+
+        @Override
+        int cost() {
+            return TEXT_COST;
+        }
+
+        @Override
+        String describe() {
+            return field + " contains \"" + fragment + "\"";
+        }
+
+        @Override
+        boolean onTitle() {
+            return true;
+        }
+
+        @Override
+        boolean matches(Title title) {
+            return NGramIndex.normalize(text.apply(title)).contains(normalizedFragment);
+        }
+
+        @Override
+        boolean isIndexed() {
+            return true;
+        }
+
+        @Override
+        long estimate(Library library) {
+            return estimate.apply(library, fragment);
+        }
+
+        @Override
+        Set<Title> lookup(Library library) {
+            return lookup.apply(library, fragment);
+        }
+    }
+
+    private static class YearClause extends Clause {
+
+        private final int from;
+        private final int to;
+
+        YearClause(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        int cost() {
+            return YEAR_COST;
+        }
+
+        @Override
+        String describe() {
+            return from == to ? "year = " + from : "year between " + from + " and " + to;
+        }
+
+        @Override
+        boolean onTitle() {
+            return true;
+        }
+
+        @Override
+        boolean matches(Title title) {
+            return title.getYear() >= from && title.getYear() <= to;
+        }
+
+        @Override
+        boolean isIndexed() {
+            return true;
+        }
+
+        @Override
+        long estimate(Library library) {
+            return library.countTitlesPublishedBetween(from, to);
+        }
+
+        @Override
+        Set<Title> lookup(Library library) {
+            return library.titlesPublishedBetween(from, to);
+        }
+    }
+
+    private static class BookClause extends Clause {
+
+        private final String description;
+        private final int cost;
+        private final Predicate<Book> predicate;
+
+        BookClause(String description, int cost, Predicate<Book> predicate) {
+            this.description = description;
+            this.cost = cost;
+            this.predicate = predicate;
+        }
+
+        @Override
+        int cost() {
+            return cost;
+        }
+
+        @Override
+        String describe() {
+            return description;
+        }
+
+        @Override
+        boolean matches(Book book) {
+            return predicate.test(book);
+        }
+    }
+
+    private class AvailabilityClause extends Clause {
+
+        private final boolean available;
+
+        AvailabilityClause(boolean available) {
+            this.available = available;
+        }
+
+        @Override
+        int cost() {
+            return AVAILABILITY_COST;
+        }
+
+        @Override
+        String describe() {
+            return "available = " + available;
+        }
+
+        @Override
+        boolean matches(Book book) {
+            return available == isAvailable(book);
+        }
+
+        @Override
+        boolean isBitmap() {
+            return true;
+        }
+
+        @Override
+        long estimate(Library library) {
+            if (snapshot != null) {
+                int lent = snapshot.totalLentBooks();
+                return available ? snapshot.totalBooks() - lent : lent;
+            }
+            int lent = library.lentBookCount();
+            return available ? library.totalBooks() - lent : lent;
+        }
+
+        @Override
+        IntStream bookIds(Library library, boolean parallel) {
+            if (snapshot != null) {
+                return available ? snapshot.availableBookIds(parallel) : snapshot.lentBookIds(parallel);
+            }
+            return available ? library.availableBookIds(parallel) : library.lentBookIds(parallel);
+        }
+    }
+
+    /**
+     * Skips the titles without copies of the availability of a clause,
+     * from the counters kept by the library for each title.
+     */
+    private class TitleAvailabilityClause extends Clause {
+
+        private final AvailabilityClause clause;
+
+        TitleAvailabilityClause(AvailabilityClause clause) {
+            this.clause = clause;
+        }
+
+        @Override
+        int cost() {
+            return AVAILABILITY_COST;
+        }
+
+        @Override
+        String describe() {
+            return "has copies " + clause.describe();
+        }
+
+        @Override
+        boolean onTitle() {
+            return true;
+        }
+
+        @Override
+        boolean matches(Title title) {
+            return library.hasCopies(title, clause.available);
+        }
     }
 }
@@ -0,0 +1,194 @@
+package com.adri0.librarian.core;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import static com.adri0.librarian.core.WriteAheadLog.readTimestamp;
+import static com.adri0.librarian.core.WriteAheadLog.writeTimestamp;
+
+/**
+ * Compact snapshot of the whole state of a library: its books,
+ * catalog, current lendings and lending history.
+ *
+ * Titles and registered users are written once into dictionaries and
+ * referenced by index from books and lendings. Past lendings are the returned
+ * lendings kept by the history, and are followed by the current
+ * lendings. A snapshot records the
+ * generation of the log that continues it, see `LibraryStore`.
+ */
+final class SnapshotFile {
+
+    private static final int MAGIC = 0x4C494253;
+    private static final int VERSION = 5;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Encodes the state of a library at a checkpoint. The library
+     * may change meanwhile, see `CheckpointImage`.
+     */
+    static byte[] encode(Library library, CheckpointImage image, long generation) throws IOException {
+        LendingHistory history = library.lendingHistory();
+        List<Lending> currentLendings = library.lendingsAt(image);
+        int[] openRows = new int[currentLendings.size()];
+        for (int i = 0; i < openRows.length; i++) {
+            openRows[i] = currentLendings.get(i).getHistoryRow();
+        }
+        Arrays.sort(openRows);
+        Map<Title, Integer> titles = new LinkedHashMap<>();
+        Map<User, Integer> users = new HashMap<>();
+        List<User> userList = image.users();
+        for (User user : userList) {
+            users.put(user, users.size());
+        }
+        Collection<Book> books = image.books().allBooks();
+        for (Book book : books) {
+            titles.putIfAbsent(book.getTitleObj(), titles.size());
+        }
+
+        // past lendings are encoded first, in a single pass adding their titles,
+        // as the retained rows may change between passes
+        ByteArrayOutputStream pastBytes = new ByteArrayOutputStream();
+        DataOutputStream past = new DataOutputStream(pastBytes);
+        int[] pastLendings = {0};
+        try {
+            history.forEach(image.historyEnd(), (row, bookId, user, lentAt, dueAt, returnedAt) -> {
+                // rows current at the checkpoint are left out even if returned since
+                Book book = history.book(bookId);
+                if (returnedAt == LendingHistory.NOT_RETURNED || Arrays.binarySearch(openRows, row) >= 0
+                        || book == null) {
+                    return;
+                }
+                try {
+                    past.writeInt(bookId);
+                    past.writeInt(titles.computeIfAbsent(book.getTitleObj(), title -> titles.size()));
+                    past.writeInt(users.get(user));
+                    writeTimestamp(past, lentAt);
+                    writeTimestamp(past, dueAt);
+                    writeTimestamp(past, returnedAt);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                pastLendings[0]++;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(generation);
+        out.writeInt(image.lastBookId());
+
+        out.writeInt(titles.size());
+        for (Title title : titles.keySet()) {
+            out.writeUTF(title.getTitle());
+            out.writeUTF(title.getAuthor());
+            out.writeInt(title.getYear());
+        }
+
+        out.writeInt(userList.size());
+        for (User user : userList) {
+            out.writeInt(user.getId());
+            out.writeUTF(user.getName());
+        }
+
+        out.writeInt(books.size());
+        for (Book book : books) {
+            out.writeInt(book.getId());
+            out.writeInt(titles.get(book.getTitleObj()));
+        }
+
+        out.writeInt(pastLendings[0]);
+        pastBytes.writeTo(out);
+
+        out.writeInt(currentLendings.size());
+        for (Lending lending : currentLendings) {
+            out.writeInt(lending.getBook().getId());
+            out.writeInt(users.get(lending.getUser()));
+            writeTimestamp(out, lending.lentAtMillis());
+            writeTimestamp(out, lending.dueAtMillis());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the snapshot next to its destination, forces it to disk
+     * and then moves it in place, so a crash never leaves a partial snapshot.
+     */
+    static void write(Path file, byte[] snapshot) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temporary.toFile())) {
+            out.write(snapshot);
+            out.getFD().sync();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores the snapshot into an empty library and returns
+     * the generation of the log that continues it.
+     * Restored users are added to the given map by id.
+     */
+    static long read(Path file, Library library, Map<Integer, User> users) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a library snapshot: " + file);
+            }
+            long generation = in.readLong();
+            int lastBookId = in.readInt();
+
+            Title[] titles = new Title[in.readInt()];
+            for (int i = 0; i < titles.length; i++) {
+                titles[i] = new Title(in.readUTF(), in.readUTF(), in.readInt());
+            }
+
+            User[] userTable = new User[in.readInt()];
+            for (int i = 0; i < userTable.length; i++) {
+                User user = new User(in.readInt(), in.readUTF());
+                users.put(user.getId(), user);
+                library.restoreUser(user);
+                userTable[i] = user;
+            }
+
+            int totalBooks = in.readInt();
+            for (int i = 0; i < totalBooks; i++) {
+                int bookId = in.readInt();
+                library.restoreBook(bookId, titles[in.readInt()]);
+            }
+            library.restoreLastBookId(lastBookId);
+
+            int pastLendings = in.readInt();
+            for (int i = 0; i < pastLendings; i++) {
+                int bookId = in.readInt();
+                Title title = titles[in.readInt()];
+                User user = userTable[in.readInt()];
+                long lentAt = readTimestamp(in);
+                long dueAt = readTimestamp(in);
+                long returnedAt = readTimestamp(in);
+                if (library.getBook(bookId) != null) {
+                    library.restoreLending(bookId, user, lentAt, dueAt);
+                    library.restoreReturn(bookId, returnedAt);
+                } else {
+                    library.restoreHistory(new Book(bookId, title), user, lentAt, dueAt, returnedAt);
+                }
+            }
+
+            int currentLendings = in.readInt();
+            for (int i = 0; i < currentLendings; i++) {
+                int bookId = in.readInt();
+                User user = userTable[in.readInt()];
+                long lentAt = readTimestamp(in);
+                library.restoreLending(bookId, user, lentAt, readTimestamp(in));
+            }
+            return generation;
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package com.adri0.librarian.core;
 
+/**
+ * Represents a unique book title in the library.
+ * Titles are immutable and cache their hash code. The library keeps
+ * one canonical instance of each title, shared by all of its copies,
+ * so comparing titles of the library is mostly a reference check.
+ */
 public class Title {
 
     private final String title;
     private final String author;
     private final int year;
+    private final int hash;
 
     public Title(String title, String author, int year) {
         if (title == null || author == null) {
@@ -13,6 +20,7 @@ public class Title {
         this.title = title;
         this.author = author;
         this.year = year;
+        this.hash = 31 * (31 * title.hashCode() + author.hashCode()) + year;
     }
 
     public String getTitle() {
@@ -29,19 +37,18 @@ public class Title {
 
     @Override
     public boolean equals(Object o) {
+        if (this == o) return true;
         if (!(o instanceof Title)) return false;
         Title other = (Title) o;
-        return title.equals(other.title)
-                && author.equals(other.author)
-                && year == other.year;
+        return hash == other.hash
+                && year == other.year
+                && title.equals(other.title)
+                && author.equals(other.author);
     }
 
     @Override
     public int hashCode() {
-        int prime = 43;
-        return prime * author.hashCode()
-                + prime * title.hashCode()
-                + prime * year;
+        return hash;
     }
 
     @Override
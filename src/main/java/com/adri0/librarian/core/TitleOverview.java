@@ -1,7 +1,6 @@
 package com.adri0.librarian.core;
 
-import java.util.Collection;
-import java.util.Collections;
+import java.util.*;
 import java.util.stream.Collectors;
 
 /**
@@ -17,11 +16,34 @@ public class TitleOverview {
     private final Title title;
     private final Collection<Book> books;
     private final Collection<Lending> currentLendings;
+    private final Collection<Book> availableBooks;
 
     TitleOverview(Title title, Collection<Book> books, Collection<Lending> currentLendings) {
         this.title = title;
         this.books = books != null ? books : Collections.emptySet();
         this.currentLendings = currentLendings != null ? currentLendings : Collections.emptySet();
+        this.availableBooks = availableBooks(this.books, this.currentLendings);
+    }
+
+    /**
+     * The copies without a lending in the overview, so they agree with
+     * the lendings of the overview rather than with later changes.
+     */
+    private static Collection<Book> availableBooks(Collection<Book> books, Collection<Lending> currentLendings) {
+        if (currentLendings.isEmpty()) {
+            return books;
+        }
+        Set<Integer> lent = new HashSet<>();
+        for (Lending lending : currentLendings) {
+            lent.add(lending.getBook().getId());
+        }
+        List<Book> available = new ArrayList<>(books.size() - lent.size());
+        for (Book book : books) {
+            if (!lent.contains(book.getId())) {
+                available.add(book);
+            }
+        }
+        return Collections.unmodifiableList(available);
     }
 
     public int totalCopies() {
@@ -41,9 +63,7 @@ public class TitleOverview {
     }
 
     public Collection<Book> getAvailableBooks() {
-        return books.stream()
-                .filter(Book::isAvailable)
-                .collect(Collectors.toList());
+        return availableBooks;
     }
 
     public Collection<Lending> getCurrentLendings() {
@@ -56,8 +76,7 @@ public class TitleOverview {
                 .map(lending -> String.format("{bookId=%s -> %s}",
                         lending.getBook().getId(), lending.getUser().getName()))
                 .collect(Collectors.joining(", "));
-        String availableCopies = books.stream()
-                .filter(Book::isAvailable)
+        String availableCopies = availableBooks.stream()
                 .map(book -> String.valueOf(book.getId()))
                 .collect(Collectors.joining(", "));
         return "TitleOverview{\n\t" +
@@ -0,0 +1,279 @@
+package com.adri0.librarian.core;
+
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Per title bookkeeping of the library. It keeps the bookIds of the
+ * copies of a title, in no particular order, and how many of them
+ * are lent. Copies are looked up in the library when needed, so
+ * copies of a mapped catalog aren't materialized until then.
+ * The library updates it on every add, remove, lend and return, so
+ * an overview of a title only visits the copies of that title.
+ *
+ * The overview of the title is built once and kept until the title changes.
+ * The first change after the overview is taken by `takeChange` queues the
+ * record into the library's changed titles, see `Library.catalogSnapshot`.
+ *
+ * All methods synchronize on the record itself. The library also holds
+ * the record's monitor when a change spans more than one call.
+ */
+class TitleRecord {
+
+    /**
+     * Most copies a title has before their slots are indexed.
+     */
+    private static final int SCANNED_COPIES = 16;
+
+    private final Title title;
+    private final IntFunction<Book> books;
+    private int[] copies;
+
+    /**
+     * Slot of each copy in `copies`, once there are too many to scan.
+     */
+    private SlotIndex slots;
+    private int totalCopies;
+    private int lentCopies;
+    private final Queue<TitleRecord> changedTitles;
+    private boolean removed;
+    private boolean changed;
+    private TitleOverview overview;
+
+    /**
+     * Slot of the title in the library's `CatalogOverviews`, or -1.
+     * Guarded by the library's catalog snapshot lock, not the record.
+     */
+    int slot = -1;
+
+    TitleRecord(Title title, Queue<TitleRecord> changedTitles, IntFunction<Book> books) {
+        this.title = title;
+        this.books = books;
+        this.copies = new int[1];
+        this.changedTitles = changedTitles;
+    }
+
+    Title getTitle() {
+        return title;
+    }
+
+    /**
+     * Marks the record as dropped from the catalog,
+     * so no new copies are added to it.
+     */
+    synchronized void markRemoved() {
+        removed = true;
+        changed();
+    }
+
+    synchronized boolean isRemoved() {
+        return removed;
+    }
+
+    synchronized void addCopy(int bookId) {
+        if (totalCopies == copies.length) {
+            copies = Arrays.copyOf(copies, copies.length * 2);
+        }
+        copies[totalCopies] = bookId;
+        if (slots != null) {
+            slots.put(bookId, totalCopies);
+        } else if (totalCopies == SCANNED_COPIES) {
+            slots = new SlotIndex();
+            for (int slot = 0; slot <= totalCopies; slot++) {
+                slots.put(copies[slot], slot);
+            }
+        }
+        totalCopies++;
+        changed();
+    }
+
+    /**
+     * Removes a copy, moving the last copy into its slot.
+     */
+    synchronized void removeCopy(int bookId) {
+        int slot = slotOf(bookId);
+        if (slot < 0) {
+            return;
+        }
+        int last = copies[--totalCopies];
+        copies[slot] = last;
+        if (slots != null) {
+            slots.remove(bookId);
+            if (last != bookId) {
+                slots.put(last, slot);
+            }
+        }
+        changed();
+    }
+
+    private int slotOf(int bookId) {
+        if (slots != null) {
+            return slots.get(bookId);
+        }
+        for (int slot = 0; slot < totalCopies; slot++) {
+            if (copies[slot] == bookId) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    synchronized void lent() {
+        lentCopies++;
+        changed();
+    }
+
+    synchronized void returned() {
+        lentCopies--;
+        changed();
+    }
+
+    synchronized int totalCopies() {
+        return totalCopies;
+    }
+
+    synchronized int lentCopies() {
+        return lentCopies;
+    }
+
+    synchronized int availableCopies() {
+        return totalCopies - lentCopies;
+    }
+
+    synchronized boolean isEmpty() {
+        return totalCopies == 0;
+    }
+
+    synchronized int[] copyIds() {
+        return Arrays.copyOf(copies, totalCopies);
+    }
+
+    synchronized List<Book> copies() {
+        List<Book> books = new ArrayList<>(totalCopies);
+        for (int i = 0; i < totalCopies; i++) {
+            books.add(this.books.apply(copies[i]));
+        }
+        return books;
+    }
+
+    synchronized TitleOverview overview() {
+        if (overview == null) {
+            List<Book> books = copies();
+            List<Lending> lendings = new ArrayList<>(lentCopies);
+            for (Book copy : books) {
+                Lending lending = copy.getLending();
+                if (lending != null) {
+                    lendings.add(lending);
+                }
+            }
+            overview = new TitleOverview(title,
+                    Collections.unmodifiableList(books),
+                    Collections.unmodifiableList(lendings));
+        }
+        return overview;
+    }
+
+    /**
+     * Takes the current state of a changed record: its overview, or null
+     * if the title no longer has copies. Later changes queue it again.
+     */
+    synchronized TitleOverview takeChange() {
+        changed = false;
+        return removed || totalCopies == 0 ? null : overview();
+    }
+
+    private void changed() {
+        overview = null;
+        if (!changed) {
+            changed = true;
+            changedTitles.offer(this);
+        }
+    }
+
+    /**
+     * Open addressing hash table from bookIds to slots, with linear probing.
+     */
+    private static final class SlotIndex {
+
+        private static final int EMPTY = -1;
+
+        private int[] keys;
+        private int[] values;
+        private int size;
+
+        SlotIndex() {
+            this.keys = new int[2 * SCANNED_COPIES];
+            this.values = new int[keys.length];
+            Arrays.fill(keys, EMPTY);
+        }
+
+        int get(int bookId) {
+            for (int i = indexOf(bookId); ; i = (i + 1) & (keys.length - 1)) {
+                if (keys[i] == bookId) {
+                    return values[i];
+                }
+                if (keys[i] == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        void put(int bookId, int slot) {
+            if (2 * (size + 1) > keys.length) {
+                resize();
+            }
+            int i = indexOf(bookId);
+            while (keys[i] != EMPTY && keys[i] != bookId) {
+                i = (i + 1) & (keys.length - 1);
+            }
+            if (keys[i] == EMPTY) {
+                keys[i] = bookId;
+                size++;
+            }
+            values[i] = slot;
+        }
+
+        /**
+         * Removes a bookId, moving back the keys probed past it.
+         */
+        void remove(int bookId) {
+            int mask = keys.length - 1;
+            int i = indexOf(bookId);
+            while (keys[i] != bookId) {
+                if (keys[i] == EMPTY) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            size--;
+            for (int next = (i + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+                int home = indexOf(keys[next]);
+                // move the key back unless its home lies after the hole, up to its slot
+                if (((next - home) & mask) >= ((next - i) & mask)) {
+                    keys[i] = keys[next];
+                    values[i] = values[next];
+                    i = next;
+                }
+            }
+            keys[i] = EMPTY;
+        }
+
+        private int indexOf(int bookId) {
+            return (bookId * 0x9E3779B9) >>> (Integer.numberOfLeadingZeros(keys.length) + 1);
+        }
+
+        private void resize() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[keys.length];
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+    }
+}
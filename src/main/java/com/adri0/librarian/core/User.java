@@ -1,13 +1,51 @@
 package com.adri0.librarian.core;
 
+/**
+ * A user borrowing books. A user gets a numeric id from the library
+ * it's registered in, see `Library.registerUser`, or when first lent
+ * a book, and keeps it. Ids are given by each library, so a user
+ * belongs to the library that registered it.
+ *
+ * Users are equal when their ids are equal, regardless of their names.
+ * A user that isn't registered yet has no id, and is only equal to itself.
+ */
 public class User {
 
-    private String name;
+    static final int UNREGISTERED = 0;
+
+    private volatile int id;
+    private volatile String name;
 
     public User(String name) {
+        this(UNREGISTERED, name);
+    }
+
+    /**
+     * Recreates a user with a known id, such as a user restored from disk.
+     */
+    User(int id, String name) {
+        this.id = id;
         this.name = name;
     }
 
+    /**
+     * The id of the user, or 0 if it isn't registered yet.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gives the user the given id unless it already has one,
+     * and returns the user's id.
+     */
+    synchronized int register(int newId) {
+        if (id == UNREGISTERED) {
+            id = newId;
+        }
+        return id;
+    }
+
     public void setName(String name) {
         this.name = name;
     }
@@ -16,6 +54,22 @@ public class User {
         return name;
     }
 
+    /**
+     * Users that aren't registered are only equal to themselves,
+     * so their hash code changes once they are.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return id != UNREGISTERED && id == ((User) o).id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(id);
+    }
+
     @Override
     public String toString() {
         return name;
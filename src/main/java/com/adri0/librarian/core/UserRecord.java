@@ -0,0 +1,76 @@
+package com.adri0.librarian.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per user bookkeeping of the library: the user and the books
+ * the user currently has. Past lendings of the user are kept by
+ * the lending history.
+ *
+ * The books are linked in the order they were lent through fields
+ * of the books themselves, so lending and returning neither search
+ * nor allocate.
+ *
+ * All methods synchronize on the record itself. The library also holds
+ * the record's monitor while lending a book, so checking the loan limit
+ * and lending happen atomically for the user.
+ */
+class UserRecord {
+
+    private final User user;
+    private Book first;
+    private Book last;
+    private int activeLendings;
+
+    UserRecord(User user) {
+        this.user = user;
+    }
+
+    User getUser() {
+        return user;
+    }
+
+    synchronized void lent(Book book) {
+        book.previousOfBorrower = last;
+        book.nextOfBorrower = null;
+        if (last != null) {
+            last.nextOfBorrower = book;
+        } else {
+            first = book;
+        }
+        last = book;
+        activeLendings++;
+    }
+
+    synchronized void returned(Book book) {
+        if (book.previousOfBorrower != null) {
+            book.previousOfBorrower.nextOfBorrower = book.nextOfBorrower;
+        } else {
+            first = book.nextOfBorrower;
+        }
+        if (book.nextOfBorrower != null) {
+            book.nextOfBorrower.previousOfBorrower = book.previousOfBorrower;
+        } else {
+            last = book.previousOfBorrower;
+        }
+        book.previousOfBorrower = null;
+        book.nextOfBorrower = null;
+        activeLendings--;
+    }
+
+    synchronized int activeLendings() {
+        return activeLendings;
+    }
+
+    /**
+     * Lendings of the books the user has, from the oldest to the most recent.
+     */
+    synchronized List<Lending> lendings() {
+        List<Lending> lendings = new ArrayList<>(activeLendings);
+        for (Book book = first; book != null; book = book.nextOfBorrower) {
+            lendings.add(book.getLending());
+        }
+        return lendings;
+    }
+}
@@ -0,0 +1,386 @@
+package com.adri0.librarian.core;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-only log of the changes applied to a library.
+ *
+ * Changes are encoded into an in-memory buffer while the library holds
+ * the lock of the changed book, which keeps appending cheap. The buffer
+ * is written to the log file and forced to disk by `flush`, either
+ * periodically by the store or by callers that need durability. Concurrent
+ * flushes are grouped: a single write and fsync covers every change
+ * appended before it started.
+ *
+ * Each record is framed as {length, crc32, type, payload}. A torn record
+ * at the end of the file, left by a crash in the middle of a write,
+ * is detected by its checksum and discarded on recovery.
+ *
+ * If writing a batch fails, the file is truncated back to its last
+ * flushed length and the batch is kept in front of the changes appended
+ * since, so the next flush writes it again. If even the truncation fails,
+ * the log is failed: later appends and flushes throw, rather than leave
+ * a gap in the file.
+ */
+class WriteAheadLog implements MutationListener, Closeable {
+
+    static final byte BOOK_ADDED = 1;
+    static final byte BOOK_REMOVED = 2;
+    static final byte BOOK_LENT = 3;
+    static final byte BOOK_RETURNED = 4;
+    static final byte USER_REGISTERED = 5;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    /**
+     * Receives the records read back from a log file.
+     */
+    interface Replay {
+        void bookAdded(int bookId, Title title);
+
+        void bookRemoved(int bookId);
+
+        void bookLent(int bookId, int userId, long lentAt, long dueAt);
+
+        void bookReturned(int bookId, long returnedAt);
+
+        void userRegistered(int userId, String name);
+    }
+
+    private final Object flushLock = new Object();
+    private final CRC32 crc = new CRC32();
+    private final RecordBuffer record = new RecordBuffer();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+
+    /**
+     * Changes appended but not yet written to the file.
+     * Guarded by `this`.
+     */
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16);
+    private ByteArrayOutputStream spare = new ByteArrayOutputStream(1 << 16);
+    private long appended;
+
+    /**
+     * Guarded by `flushLock`.
+     */
+    private FileChannel channel;
+    private long flushedLength;
+    private volatile long durable;
+
+    /**
+     * Why the log can no longer be written, if it can't.
+     */
+    private volatile IOException failure;
+
+    WriteAheadLog(Path file) throws IOException {
+        this.channel = openForAppend(file);
+        this.flushedLength = channel.size();
+    }
+
+    long appendedRecords() {
+        synchronized (this) {
+            return appended;
+        }
+    }
+
+    @Override
+    public void bookAdded(Book book) {
+        synchronized (this) {
+            try {
+                recordOut.writeByte(BOOK_ADDED);
+                recordOut.writeInt(book.getId());
+                recordOut.writeUTF(book.getTitle());
+                recordOut.writeUTF(book.getAuthor());
+                recordOut.writeInt(book.getYear());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            frameRecord();
+        }
+    }
+
+    @Override
+    public void bookRemoved(Book book) {
+        synchronized (this) {
+            try {
+                recordOut.writeByte(BOOK_REMOVED);
+                recordOut.writeInt(book.getId());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            frameRecord();
+        }
+    }
+
+    @Override
+    public void bookLent(Book book) {
+        synchronized (this) {
+            try {
+                recordOut.writeByte(BOOK_LENT);
+                recordOut.writeInt(book.getId());
+                recordOut.writeInt(book.getBorrower().getId());
+                writeTimestamp(recordOut, book.lentAtMillis());
+                writeTimestamp(recordOut, book.dueAtMillis());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            frameRecord();
+        }
+    }
+
+    @Override
+    public void bookReturned(Book book, User borrower, long returnedAt) {
+        synchronized (this) {
+            try {
+                recordOut.writeByte(BOOK_RETURNED);
+                recordOut.writeInt(book.getId());
+                writeTimestamp(recordOut, returnedAt);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            frameRecord();
+        }
+    }
+
+    @Override
+    public void userRegistered(User user) {
+        synchronized (this) {
+            try {
+                recordOut.writeByte(USER_REGISTERED);
+                recordOut.writeInt(user.getId());
+                recordOut.writeUTF(user.getName());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            frameRecord();
+        }
+    }
+
+    /**
+     * Writes every change appended so far to the log file and forces
+     * it to disk. Returns once those changes are durable, possibly
+     * because a concurrent flush already covered them.
+     */
+    void flush() throws IOException {
+        long target = appendedRecords();
+        synchronized (flushLock) {
+            checkNotFailed();
+            if (durable >= target) {
+                return;
+            }
+            ByteArrayOutputStream batch;
+            long batchEnd;
+            synchronized (this) {
+                batch = pending;
+                batchEnd = appended;
+                pending = spare;
+                spare = batch;
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(batch.toByteArray());
+            try {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                restore(batch, e);
+                throw e;
+            }
+            flushedLength += bytes.limit();
+            batch.reset();
+            durable = batchEnd;
+        }
+    }
+
+    /**
+     * Undoes a failed write of a batch: truncates what was written of it,
+     * and puts it back in front of the changes appended since.
+     */
+    private void restore(ByteArrayOutputStream batch, IOException cause) {
+        try {
+            channel.truncate(flushedLength);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+            failure = cause;
+            return;
+        }
+        synchronized (this) {
+            try {
+                pending.writeTo(batch);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pending.reset();
+            spare = pending;
+            pending = batch;
+        }
+    }
+
+    private void checkNotFailed() throws IOException {
+        IOException cause = failure;
+        if (cause != null) {
+            throw new IOException("the log failed to be written", cause);
+        }
+    }
+
+    /**
+     * Flushes the current file and continues appending to a new one.
+     * Callers must make sure no changes are appended meanwhile.
+     */
+    void rotate(Path file) throws IOException {
+        synchronized (flushLock) {
+            flush();
+            channel.close();
+            channel = openForAppend(file);
+            flushedLength = channel.size();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (flushLock) {
+            flush();
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads back all intact records of a log file, in order, and
+     * truncates the file after the last intact one.
+     * Returns the number of records read.
+     */
+    static long replay(Path file, Replay replay) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long records = 0;
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                long checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt() & 0xFFFFFFFFL;
+                    if (length <= 0 || length > MAX_RECORD_SIZE) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload, 0, payload.length);
+                if (crc.getValue() != checksum) {
+                    break;
+                }
+                apply(payload, replay);
+                validLength += HEADER_SIZE + length;
+                records++;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, WRITE)) {
+            if (channel.size() > validLength) {
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+        }
+        return records;
+    }
+
+    private static void apply(byte[] payload, Replay replay) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        // the id of the book, or of the user for user records
+        int bookId = in.readInt();
+        switch (type) {
+            case BOOK_ADDED:
+                replay.bookAdded(bookId, new Title(in.readUTF(), in.readUTF(), in.readInt()));
+                break;
+            case BOOK_REMOVED:
+                replay.bookRemoved(bookId);
+                break;
+            case BOOK_LENT:
+                replay.bookLent(bookId, in.readInt(), readTimestamp(in), readTimestamp(in));
+                break;
+            case BOOK_RETURNED:
+                replay.bookReturned(bookId, readTimestamp(in));
+                break;
+            case USER_REGISTERED:
+                replay.userRegistered(bookId, in.readUTF());
+                break;
+            default:
+                throw new IOException("unknown log record type " + type);
+        }
+    }
+
+    /**
+     * Writes a timestamp in milliseconds of local time,
+     * see `LendingHistory.toMillis`, as it is kept.
+     */
+    static void writeTimestamp(DataOutput out, long millis) throws IOException {
+        out.writeLong(millis);
+    }
+
+    static long readTimestamp(DataInput in) throws IOException {
+        return in.readLong();
+    }
+
+    /**
+     * Moves the encoded record into the pending buffer behind its header.
+     */
+    private void frameRecord() {
+        if (failure != null) {
+            record.reset();
+            throw new UncheckedIOException(new IOException("the log failed to be written", failure));
+        }
+        crc.reset();
+        crc.update(record.bytes(), 0, record.size());
+        int length = record.size();
+        int checksum = (int) crc.getValue();
+        pending.write(length >>> 24);
+        pending.write(length >>> 16);
+        pending.write(length >>> 8);
+        pending.write(length);
+        pending.write(checksum >>> 24);
+        pending.write(checksum >>> 16);
+        pending.write(checksum >>> 8);
+        pending.write(checksum);
+        try {
+            record.writeTo(pending);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        record.reset();
+        appended++;
+    }
+
+    private static FileChannel openForAppend(Path file) throws IOException {
+        return FileChannel.open(file, CREATE, WRITE, APPEND);
+    }
+
+    /**
+     * Gives access to the encoded bytes without copying them.
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+
+        RecordBuffer() {
+            super(128);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
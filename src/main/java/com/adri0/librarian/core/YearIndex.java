@@ -0,0 +1,60 @@
+package com.adri0.librarian.core;
+
+import java.util.*;
+
+/**
+ * Index of titles by publication year, sorted by year so a range of
+ * years is resolved by visiting only the buckets within the range.
+ *
+ * All methods synchronize on the index, results are copies.
+ */
+class YearIndex {
+
+    private final NavigableMap<Integer, Set<Title>> titlesByYear;
+
+    YearIndex() {
+        this.titlesByYear = new TreeMap<>();
+    }
+
+    synchronized void add(Title title) {
+        titlesByYear.computeIfAbsent(title.getYear(), year -> new HashSet<>()).add(title);
+    }
+
+    synchronized void remove(Title title) {
+        Set<Title> titles = titlesByYear.get(title.getYear());
+        if (titles != null) {
+            titles.remove(title);
+            if (titles.isEmpty()) {
+                titlesByYear.remove(title.getYear());
+            }
+        }
+    }
+
+    /**
+     * Returns the titles published between both years, inclusive.
+     */
+    synchronized Set<Title> between(int from, int to) {
+        Set<Title> result = new HashSet<>();
+        if (from > to) {
+            return result;
+        }
+        for (Set<Title> titles : titlesByYear.subMap(from, true, to, true).values()) {
+            result.addAll(titles);
+        }
+        return result;
+    }
+
+    /**
+     * Counts the titles published between both years, inclusive.
+     */
+    synchronized int count(int from, int to) {
+        if (from > to) {
+            return 0;
+        }
+        int count = 0;
+        for (Set<Title> titles : titlesByYear.subMap(from, true, to, true).values()) {
+            count += titles.size();
+        }
+        return count;
+    }
+}
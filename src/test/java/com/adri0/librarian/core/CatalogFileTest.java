@@ -0,0 +1,82 @@
+package com.adri0.librarian.core;
+
+import com.adri0.librarian.sampledata.Top58Titles;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class CatalogFileTest {
+
+    @TempDir
+    Path directory;
+
+    private Library library;
+    private Path file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        library = new Library();
+        Top58Titles.generateSamples(58, library::addBook);
+        library.addBook("Zażółć gęślą jaźń", "Jan Brzechwa", 1950);
+        library.removeBook(7);
+        library.lendBook(3, new User("Alicja"));
+        file = directory.resolve("library.catalog");
+        library.writeCatalog(file);
+    }
+
+    @Test
+    public void opened_catalog_has_the_same_books() throws IOException {
+        Library opened = Library.openCatalog(file);
+
+        assertEquals(library.totalBooks(), opened.totalBooks());
+        assertFalse(opened.containsBook(7));
+        assertNull(opened.getBook(7));
+        assertEquals(library.getBook(59).getTitleObj(), opened.getBook(59).getTitleObj());
+        assertEquals(ids(library.search().byAuthor("Twain").execute()),
+                ids(opened.search().byAuthor("Twain").execute()));
+        assertEquals(library.listAllTitles().size(), opened.listAllTitles().size());
+        assertTrue(opened.getBook(3).isAvailable());
+        assertEquals(60, opened.addBook("Emma", "Jane Austen", 1994).getId());
+    }
+
+    @Test
+    public void copies_are_materialized_when_used() throws IOException {
+        Library opened = Library.openCatalog(file);
+        assertEquals(0, opened.materializedBooks());
+
+        Book book = opened.getBook(10);
+        assertSame(book, opened.getBook(10));
+        opened.lendBook(11, new User("Bogdan"));
+        opened.removeBook(12);
+        Set<Integer> used = new HashSet<>(ids(opened.search().byAuthor("Twain").execute()));
+        used.addAll(Arrays.asList(10, 11));
+        assertEquals(used.size(), opened.materializedBooks());
+
+        assertNull(opened.getBook(12));
+        assertEquals(library.totalBooks() - 1, opened.search().execute().size());
+        assertEquals(opened.totalBooks(), opened.materializedBooks());
+    }
+
+    @Test
+    public void other_files_are_rejected() throws IOException {
+        Path other = directory.resolve("other");
+        Files.write(other, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> Library.openCatalog(other));
+    }
+
+    private static List<Integer> ids(List<Book> books) {
+        return books.stream().map(Book::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,149 @@
+package com.adri0.librarian.core;
+
+import com.adri0.librarian.core.EventStream.Overflow;
+import com.adri0.librarian.sampledata.Top58Titles;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class EventStreamTest {
+
+    private Library library;
+    private User alicja;
+
+    @BeforeEach
+    public void setUp() {
+        library = new Library();
+        Top58Titles.generateSamples(10, library::addBook);
+        alicja = new User("Alicja");
+    }
+
+    @Test
+    public void changes_are_published_in_order_to_every_consumer() {
+        List<String> first = Collections.synchronizedList(new ArrayList<>());
+        List<String> second = Collections.synchronizedList(new ArrayList<>());
+        EventStream stream = library.streamEvents(4, Overflow.BLOCK, describeInto(first), describeInto(second));
+        library.lendBook(1, alicja);
+        library.returnBook(1);
+        library.removeBook(1);
+        library.addBook("Emma", "Jane Austen", 1994);
+        stream.close();
+
+        List<String> expected = Arrays.asList(
+                "0 BOOK_LENT 1 Alicja", "1 BOOK_RETURNED 1 Alicja", "2 BOOK_REMOVED 1", "3 BOOK_ADDED 11");
+        assertEquals(expected, first);
+        assertEquals(expected, second);
+        assertEquals(4, stream.getPublished());
+        assertEquals(0, stream.getDropped());
+    }
+
+    @Test
+    public void lent_events_carry_the_loan() throws Exception {
+        BlockingQueue<String> loans = new LinkedBlockingQueue<>();
+        EventStream stream = library.streamEvents(16, Overflow.BLOCK, batch -> {
+            for (LibraryEvent event : batch) {
+                loans.add(event.getTime() + " " + event.getDueAt());
+            }
+        });
+        Lending lending = library.lendBook(2, alicja);
+        assertEquals(lending.getLentAt() + " " + lending.getDueAt(), loans.poll(10, TimeUnit.SECONDS));
+        stream.close();
+    }
+
+    @Test
+    public void full_stream_drops_changes() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        EventStream stream = library.streamEvents(2, Overflow.DROP, batch -> await(release));
+        for (int bookId = 1; bookId <= 10; bookId++) {
+            library.lendBook(bookId, alicja);
+        }
+        assertFalse(library.getBook(10).isAvailable());
+        assertTrue(stream.getDropped() >= 7);
+        assertEquals(10, stream.getPublished() + stream.getDropped());
+        release.countDown();
+        stream.close();
+    }
+
+    @Test
+    public void full_stream_blocks_changes_until_consumed() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> lent = Collections.synchronizedList(new ArrayList<>());
+        EventStream stream = library.streamEvents(2, Overflow.BLOCK, batch -> {
+            await(release);
+            batch.forEach(event -> lent.add(event.getBook().getId()));
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> lending = executor.submit(() -> {
+            for (int bookId = 1; bookId <= 10; bookId++) {
+                library.lendBook(bookId, alicja);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> lending.get(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        lending.get(10, TimeUnit.SECONDS);
+        stream.close();
+        executor.shutdown();
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), lent);
+        assertEquals(0, stream.getDropped());
+    }
+
+    @Test
+    public void failed_consumer_doesnt_hold_back_the_stream() {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        EventStream stream = library.streamEvents(1, Overflow.BLOCK, batch -> {
+            throw new IllegalStateException("failed");
+        }, describeInto(events));
+        for (int bookId = 1; bookId <= 10; bookId++) {
+            library.lendBook(bookId, alicja);
+        }
+        stream.close();
+
+        assertEquals(10, events.size());
+    }
+
+    @Test
+    public void consumer_error_closes_the_stream() throws Exception {
+        EventStream stream = library.streamEvents(1, Overflow.BLOCK, batch -> {
+            throw new AssertionError("failed");
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> lending = executor.submit(() -> {
+            for (int bookId = 1; bookId <= 10; bookId++) {
+                library.lendBook(bookId, alicja);
+            }
+        });
+        lending.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+        stream.close();
+
+        assertFalse(library.getBook(10).isAvailable());
+        assertTrue(stream.getDropped() > 0);
+        assertEquals("failed", stream.getFailure().getMessage());
+    }
+
+    private static LibraryEventConsumer describeInto(List<String> descriptions) {
+        return batch -> {
+            for (LibraryEvent event : batch) {
+                descriptions.add(event.getSequence() + " " + event.getType() + " " + event.getBook().getId()
+                        + (event.getUser() != null ? " " + event.getUser().getName() : ""));
+            }
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
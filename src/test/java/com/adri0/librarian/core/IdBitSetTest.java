@@ -0,0 +1,46 @@
+package com.adri0.librarian.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class IdBitSetTest {
+
+    @Test
+    public void sets_and_clears_ids_across_pages() {
+        IdBitSet bits = new IdBitSet();
+        bits.set(0);
+        bits.set(63);
+        bits.set(64);
+        bits.set(1_000_000);
+        bits.clear(63);
+        bits.clear(5_000_000);
+
+        assertTrue(bits.get(0));
+        assertFalse(bits.get(63));
+        assertTrue(bits.get(64));
+        assertTrue(bits.get(1_000_000));
+        assertFalse(bits.get(-1));
+        assertEquals(3, bits.cardinality());
+        assertEquals(Arrays.asList(0, 64, 1_000_000),
+                bits.stream(false).boxed().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void and_not_combines_sets_word_by_word() {
+        IdBitSet present = new IdBitSet();
+        IdBitSet lent = new IdBitSet();
+        IntStream.range(0, 100_000).forEach(present::set);
+        IntStream.range(0, 100_000).filter(id -> id % 3 == 0).forEach(lent::set);
+        lent.set(200_000);
+
+        int[] expected = IntStream.range(0, 100_000).filter(id -> id % 3 != 0).toArray();
+        assertArrayEquals(expected, present.andNot(lent, false).toArray());
+        assertArrayEquals(expected, present.andNot(lent, true).sorted().toArray());
+    }
+}
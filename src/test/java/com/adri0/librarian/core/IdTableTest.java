@@ -0,0 +1,85 @@
+package com.adri0.librarian.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class IdTableTest {
+
+    @Test
+    public void stores_values_across_pages() {
+        IdTable<String> table = new IdTable<>();
+        table.put(1, "one");
+        table.put(5_000, "five thousand");
+        table.put(1_000_000, "a million");
+
+        assertEquals("one", table.get(1));
+        assertEquals("five thousand", table.get(5_000));
+        assertEquals("a million", table.get(1_000_000));
+        assertNull(table.get(2));
+        assertNull(table.get(-1));
+        assertNull(table.get(Integer.MAX_VALUE));
+        assertEquals(3, table.size());
+    }
+
+    @Test
+    public void removed_values_are_gone() {
+        IdTable<String> table = new IdTable<>();
+        table.put(1, "one");
+        assertEquals("one", table.remove(1));
+        assertNull(table.remove(1));
+        assertFalse(table.contains(1));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void frozen_copy_keeps_its_values() {
+        IdTable<String> table = new IdTable<>();
+        table.put(1, "one");
+        table.put(5_000, "five thousand");
+        IdTable<String> copy = table.freeze();
+        assertFalse(table.changedSince(copy));
+
+        table.put(1, "uno");
+        table.remove(5_000);
+        table.put(2, "two");
+        table.putIfAbsent(9_000, "nine thousand");
+
+        assertTrue(table.changedSince(copy));
+        assertEquals("one", copy.get(1));
+        assertEquals("five thousand", copy.get(5_000));
+        assertNull(copy.get(2));
+        assertEquals(Arrays.asList("one", "five thousand"), new ArrayList<>(copy.values()));
+        assertEquals(Arrays.asList("uno", "two", "nine thousand"), new ArrayList<>(table.values()));
+    }
+
+    @Test
+    public void values_are_iterated_in_id_order() {
+        IdTable<String> table = new IdTable<>();
+        table.put(9_000, "c");
+        table.put(3, "a");
+        table.put(4_096, "b");
+        table.remove(4_096);
+        table.put(4_097, "b");
+
+        List<String> values = new ArrayList<>(table.values());
+        assertEquals(Arrays.asList("a", "b", "c"), values);
+        assertEquals(3, table.values().size());
+    }
+
+    @Test
+    public void parallel_streams_visit_every_value_once() {
+        IdTable<Integer> table = new IdTable<>();
+        for (int id = 0; id < 100_000; id += 3) {
+            table.put(id, id);
+        }
+        assertEquals(table.size(), table.values().parallelStream().distinct().count());
+        assertEquals(table.values().stream().mapToLong(Integer::longValue).sum(),
+                table.values().parallelStream().mapToLong(Integer::longValue).sum());
+    }
+}
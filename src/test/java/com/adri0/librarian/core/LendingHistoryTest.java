@@ -0,0 +1,173 @@
+package com.adri0.librarian.core;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static com.adri0.librarian.core.LendingHistory.SEGMENT_ROWS;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class LendingHistoryTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2020, 3, 1, 10, 0);
+
+    private Library library;
+    private User alicja;
+    private User bogdan;
+
+    @BeforeEach
+    public void setUp() {
+        library = new Library();
+        library.addBook("The Odyssey", "Homer", 1998);
+        library.addBook("Emma", "Jane Austen", 1994);
+        alicja = library.registerUser("Alicja");
+        bogdan = library.registerUser("Bogdan");
+    }
+
+    @Test
+    public void lendings_of_a_book_are_kept_in_order() {
+        library.lendBook(1, alicja);
+        library.returnBook(1);
+        Lending current = library.lendBook(1, bogdan);
+
+        List<Lending> lendings = library.getLendingHistory(1);
+        assertEquals(2, lendings.size());
+        assertEquals(alicja, lendings.get(0).getUser());
+        assertNotNull(lendings.get(0).getReturnedAt());
+        assertSame(current, lendings.get(1));
+        assertNull(lendings.get(1).getReturnedAt());
+    }
+
+    @Test
+    public void lendings_of_a_user_span_books() {
+        library.lendBook(1, alicja);
+        library.lendBook(2, bogdan);
+        library.returnBook(1);
+        library.lendBook(1, bogdan);
+
+        assertEquals(1, library.getLendingHistory(alicja).size());
+        List<Lending> lendings = library.getLendingHistory(bogdan);
+        assertEquals(2, lendings.size());
+        assertEquals(2, lendings.get(0).getBook().getId());
+        assertEquals(1, lendings.get(1).getBook().getId());
+        assertTrue(library.getLendingHistory(new User("Cecil")).isEmpty());
+    }
+
+    @Test
+    public void lendings_of_a_user_are_found_by_user_id() {
+        library.lendBook(1, alicja);
+        library.lendBook(2, new User(alicja.getId(), "Alicja"));
+
+        List<Lending> lendings = library.getLendingHistory(new User(alicja.getId(), "Alicja"));
+        assertEquals(2, lendings.size());
+        assertSame(alicja, lendings.get(0).getUser());
+    }
+
+    @Test
+    public void lendings_of_removed_books_are_kept() {
+        library.lendBook(1, alicja);
+        library.returnBook(1);
+        library.removeBook(1);
+
+        List<Lending> lendings = library.getLendingHistory(1);
+        assertEquals(1, lendings.size());
+        assertEquals("The Odyssey", lendings.get(0).getBook().getTitle());
+    }
+
+    @Test
+    public void lendings_are_found_by_time_range() {
+        LendingHistory history = historyOfTwoBooks(LendingHistory.UNLIMITED_SEGMENTS, null);
+        for (int day = 0; day < 10; day++) {
+            history.append(1 + day % 2, alicja, millis(START.plusDays(day)), millis(START.plusDays(day + 30)));
+        }
+
+        List<Lending> lendings = history.between(millis(START.plusDays(2)), millis(START.plusDays(5)));
+        assertEquals(3, lendings.size());
+        assertEquals(START.plusDays(2), lendings.get(0).getLentAt());
+        assertEquals(START.plusDays(4), lendings.get(2).getLentAt());
+    }
+
+    @Test
+    public void history_drops_old_segments_beyond_its_bound() {
+        LendingHistory history = historyOfTwoBooks(2, null);
+        int rows = 3 * SEGMENT_ROWS;
+        for (int row = 0; row < rows; row++) {
+            history.append(1, row % 2 == 0 ? alicja : bogdan, millis(START.plusSeconds(row)), millis(START.plusDays(30)));
+        }
+
+        assertEquals(2 * SEGMENT_ROWS, history.size());
+        assertEquals(2 * SEGMENT_ROWS, history.ofBook(1).size());
+        assertEquals(SEGMENT_ROWS, history.ofUser(alicja).size());
+        assertTrue(history.between(millis(START), millis(START.plusSeconds(SEGMENT_ROWS))).isEmpty());
+    }
+
+    @Test
+    public void bounded_history_reuses_dropped_segments() {
+        LendingHistory history = historyOfTwoBooks(2, null);
+        int rows = 5 * SEGMENT_ROWS;
+        for (int row = 0; row < rows; row++) {
+            history.append(1 + row % 2, alicja, millis(START.plusSeconds(row)), millis(START.plusDays(30)));
+        }
+        history.returned(rows - 1, millis(START.plusDays(1)));
+
+        List<Lending> ofBook = history.ofBook(2);
+        assertEquals(SEGMENT_ROWS, ofBook.size());
+        assertEquals(START.plusSeconds(3 * SEGMENT_ROWS + 1), ofBook.get(0).getLentAt());
+        assertEquals(START.plusDays(1), ofBook.get(SEGMENT_ROWS - 1).getReturnedAt());
+        assertNull(ofBook.get(SEGMENT_ROWS - 2).getReturnedAt());
+        assertTrue(history.between(millis(START), millis(START.plusSeconds(3 * SEGMENT_ROWS))).isEmpty());
+        assertEquals(10, history.between(millis(START.plusSeconds(4 * SEGMENT_ROWS)),
+                millis(START.plusSeconds(4 * SEGMENT_ROWS + 10))).size());
+    }
+
+    @Test
+    public void removed_books_are_forgotten_with_their_last_lending() {
+        LendingHistory history = historyOfTwoBooks(2, null);
+        Book emma = library.getBook(2);
+        history.append(2, alicja, millis(START), millis(START.plusDays(30)));
+        library.removeBook(2);
+        history.retire(emma);
+        for (int row = 1; row < 2 * SEGMENT_ROWS; row++) {
+            history.append(1, alicja, millis(START.plusSeconds(row)), millis(START.plusDays(30)));
+        }
+        assertSame(emma, history.book(2));
+
+        history.append(1, alicja, millis(START.plusSeconds(2 * SEGMENT_ROWS)), millis(START.plusDays(30)));
+        assertNull(history.book(2));
+        assertTrue(history.ofBook(2).isEmpty());
+        assertNotNull(history.book(1));
+    }
+
+    @Test
+    public void history_spills_old_segments_to_files(@TempDir Path directory) throws Exception {
+        LendingHistory history = historyOfTwoBooks(1, directory);
+        int rows = 3 * SEGMENT_ROWS;
+        for (int row = 0; row < rows; row++) {
+            history.append(1 + row % 2, alicja, millis(START.plusSeconds(row)), millis(START.plusDays(30)));
+        }
+        history.returned(0, millis(START.plusDays(1)));
+
+        assertEquals(2, Files.list(directory).count());
+        assertEquals(rows, history.size());
+        assertEquals(rows / 2, history.ofBook(2).size());
+        Lending first = history.ofBook(1).get(0);
+        assertEquals(START, first.getLentAt());
+        assertEquals(START.plusDays(30), first.getDueAt());
+        assertEquals(START.plusDays(1), first.getReturnedAt());
+        assertEquals(10, history.between(millis(START.plusSeconds(100)), millis(START.plusSeconds(110))).size());
+    }
+
+    private LendingHistory historyOfTwoBooks(int segmentsInMemory, Path spillDirectory) {
+        return new LendingHistory(segmentsInMemory, spillDirectory, library::getBook, library::getUser);
+    }
+
+    private static long millis(LocalDateTime timestamp) {
+        return LendingHistory.toMillis(timestamp);
+    }
+}
@@ -0,0 +1,200 @@
+package com.adri0.librarian.core;
+
+import com.adri0.librarian.sampledata.Top58Titles;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class LibraryConcurrencyTest {
+
+    private static final int THREADS = 8;
+
+    @Test
+    public void concurrent_lending_never_lends_a_book_twice() throws Exception {
+        Library library = new Library();
+        int totalBooks = 16;
+        Top58Titles.generateSamples(totalBooks, library::addBook);
+
+        AtomicIntegerArray holders = new AtomicIntegerArray(totalBooks + 1);
+        AtomicInteger doubleLendings = new AtomicInteger();
+        AtomicInteger successfulLendings = new AtomicInteger();
+
+        runConcurrently(thread -> {
+            User user = new User("user-" + thread);
+            Random random = new Random(thread);
+            for (int i = 0; i < 20_000; i++) {
+                int bookId = 1 + random.nextInt(totalBooks);
+                try {
+                    library.lendBook(bookId, user);
+                } catch (IllegalStateException e) {
+                    continue;
+                }
+                successfulLendings.incrementAndGet();
+                if (holders.incrementAndGet(bookId) != 1) {
+                    doubleLendings.incrementAndGet();
+                }
+                holders.decrementAndGet(bookId);
+                library.returnBook(bookId);
+            }
+        });
+
+        assertEquals(0, doubleLendings.get());
+        assertTrue(successfulLendings.get() > 0);
+        assertEquals(0, library.getCurrentLendings().size());
+        library.listAllTitles().forEach(overview ->
+                assertEquals(overview.totalCopies(), overview.availableCopies()));
+    }
+
+    @Test
+    public void concurrent_additions_get_unique_ids() throws Exception {
+        Library library = new Library();
+        Set<Integer> ids = ConcurrentHashMap.newKeySet();
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < 1_000; i++) {
+                ids.add(library.addBook("Emma", "Jane Austen", 1994).getId());
+            }
+        });
+
+        assertEquals(THREADS * 1_000, ids.size());
+        assertEquals(THREADS * 1_000, library.totalBooks());
+        assertEquals(1, library.listAllTitles().size());
+        assertEquals(THREADS * 1_000, library.listAllTitles().get(0).totalCopies());
+    }
+
+    @Test
+    public void concurrent_add_and_remove_keeps_title_indexed() throws Exception {
+        Library library = new Library();
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < 2_000; i++) {
+                Book book = library.addBook("Emma", "Jane Austen", 1994);
+                library.removeBook(book.getId());
+            }
+        });
+        Book book = library.addBook("Emma", "Jane Austen", 1994);
+
+        assertEquals(1, library.totalBooks());
+        assertEquals(Collections.singletonList(book), library.search().byAuthor("austen").execute());
+    }
+
+    @Test
+    public void parallel_queries_see_each_book_once_while_books_are_lent() throws Exception {
+        Library library = new Library();
+        for (int i = 0; i < 400; i++) {
+            Top58Titles.generateSamples(58, library::addBook);
+        }
+        int totalBooks = library.totalBooks();
+        AtomicInteger inconsistentResults = new AtomicInteger();
+
+        runConcurrently(thread -> {
+            Random random = new Random(thread);
+            if (thread % 2 == 0) {
+                User user = new User("user-" + thread);
+                for (int i = 0; i < 20_000; i++) {
+                    int bookId = 1 + random.nextInt(totalBooks);
+                    try {
+                        library.lendBook(bookId, user);
+                        library.returnBook(bookId);
+                    } catch (IllegalStateException e) {
+                        // lent by another thread
+                    }
+                }
+            } else {
+                for (int i = 0; i < 20; i++) {
+                    List<Book> books = library.search().parallel().execute();
+                    if (books.size() != totalBooks || new HashSet<>(books).size() != totalBooks) {
+                        inconsistentResults.incrementAndGet();
+                    }
+                }
+            }
+        });
+
+        assertEquals(0, inconsistentResults.get());
+    }
+
+    @Test
+    public void searches_dont_see_books_being_removed() throws Exception {
+        Library library = new Library();
+        int copies = 2_000;
+        for (int i = 0; i < copies; i++) {
+            library.addBook("Emma", "Jane Austen", 1994);
+        }
+        AtomicInteger remaining = new AtomicInteger(copies);
+        AtomicInteger nullResults = new AtomicInteger();
+
+        runConcurrently(thread -> {
+            if (thread % 2 == 0) {
+                for (int bookId = 1 + thread / 2; bookId <= copies; bookId += THREADS / 2) {
+                    library.removeBook(bookId);
+                    remaining.decrementAndGet();
+                }
+            } else {
+                while (remaining.get() > 0) {
+                    for (Book book : library.search().byTitle("emm").execute()) {
+                        if (book == null) {
+                            nullResults.incrementAndGet();
+                        }
+                    }
+                }
+            }
+        });
+
+        assertEquals(0, nullResults.get());
+        assertEquals(0, library.totalBooks());
+    }
+
+    @Test
+    public void concurrent_lending_respects_the_loan_limit() throws Exception {
+        Library library = Library.builder().loanLimit(5).build();
+        for (int i = 0; i < 10; i++) {
+            Top58Titles.generateSamples(58, library::addBook);
+        }
+        User user = library.registerUser("Ada");
+
+        runConcurrently(thread -> {
+            for (int bookId = 1 + thread; bookId <= 580; bookId += THREADS) {
+                try {
+                    library.lendBook(bookId, user);
+                } catch (IllegalStateException e) {
+                    // the user has reached the limit
+                }
+            }
+        });
+
+        assertEquals(5, library.getCurrentLendings(user).size());
+        assertEquals(5, library.getCurrentLendings().size());
+    }
+
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    private static void runConcurrently(Worker worker) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                int threadNumber = thread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    worker.run(threadNumber);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
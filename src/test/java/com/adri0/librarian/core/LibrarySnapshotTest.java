@@ -0,0 +1,124 @@
+package com.adri0.librarian.core;
+
+import com.adri0.librarian.sampledata.Top58Titles;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class LibrarySnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    private Library library;
+    private User alicja;
+
+    @BeforeEach
+    public void setUp() {
+        library = new Library();
+        Top58Titles.generateSamples(58, library::addBook);
+        alicja = new User("Alicja");
+        library.lendBook(1, alicja);
+    }
+
+    @Test
+    public void snapshot_doesnt_see_later_changes() {
+        LibrarySnapshot snapshot = library.snapshot();
+        Book removed = library.getBook(3);
+        library.returnBook(1);
+        library.lendBook(2, alicja);
+        library.removeBook(3);
+        library.addBook("Emma", "Jane Austen", 1994);
+
+        assertEquals(58, snapshot.totalBooks());
+        assertEquals(1, snapshot.totalLentBooks());
+        assertFalse(snapshot.isAvailable(1));
+        assertTrue(snapshot.isAvailable(2));
+        assertSame(removed, snapshot.getBook(3));
+        assertNull(snapshot.getBook(59));
+        assertEquals(57, snapshot.search().byAvailability(true).count());
+        assertEquals(Collections.singletonList(1), ids(snapshot.search().byAvailability(false).execute()));
+        assertEquals(58, snapshot.search().execute().size());
+
+        LibrarySnapshot next = library.snapshot();
+        assertTrue(next.getVersion() > snapshot.getVersion());
+        assertEquals(Collections.singletonList(2), ids(next.search().byAvailability(false).execute()));
+        assertEquals(library.search().byAuthor("austen").count(), next.search().byAuthor("austen").count());
+    }
+
+    @Test
+    public void unchanged_library_keeps_its_snapshot() {
+        LibrarySnapshot snapshot = library.snapshot();
+        assertSame(snapshot, library.snapshot());
+        library.returnBook(1);
+        assertNotSame(snapshot, library.snapshot());
+    }
+
+    @Test
+    public void snapshot_of_mapped_catalog_keeps_removed_copies() throws IOException {
+        Path file = directory.resolve("library.catalog");
+        library.writeCatalog(file);
+        Library opened = Library.openCatalog(file);
+        LibrarySnapshot snapshot = opened.snapshot();
+        opened.removeBook(5);
+
+        assertNull(opened.getBook(5));
+        assertEquals(library.getBook(5).getTitleObj(), snapshot.getBook(5).getTitleObj());
+        assertEquals(58, snapshot.search().execute().size());
+    }
+
+    @Test
+    public void snapshots_are_consistent_while_books_are_lent() throws Exception {
+        int lenders = 4;
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(lenders);
+        List<Future<?>> lending = new ArrayList<>();
+        for (int i = 0; i < lenders; i++) {
+            int first = 2 + i;
+            User user = new User("Lender " + i);
+            lending.add(executor.submit(() -> {
+                while (!done.get()) {
+                    for (int bookId = first; bookId <= 58; bookId += lenders) {
+                        library.lendBook(bookId, user);
+                    }
+                    for (int bookId = first; bookId <= 58; bookId += lenders) {
+                        library.returnBook(bookId);
+                    }
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < 500; i++) {
+                LibrarySnapshot snapshot = library.snapshot();
+                long available = snapshot.search().byAvailability(true).count();
+                long lent = snapshot.search().by(book -> !snapshot.isAvailable(book.getId())).count();
+                assertEquals(58, snapshot.totalBooks());
+                assertEquals(snapshot.totalBooks() - snapshot.totalLentBooks(), available);
+                assertEquals(snapshot.totalLentBooks(), lent);
+                assertEquals(available, snapshot.search().byAvailability(true).count());
+            }
+        } finally {
+            done.set(true);
+            for (Future<?> future : lending) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            executor.shutdown();
+        }
+    }
+
+    private static List<Integer> ids(List<Book> books) {
+        return books.stream().map(Book::getId).collect(Collectors.toList());
+    }
+}
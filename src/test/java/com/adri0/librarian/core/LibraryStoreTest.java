@@ -0,0 +1,169 @@
+package com.adri0.librarian.core;
+
+import com.adri0.librarian.sampledata.Top58Titles;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class LibraryStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void changes_survive_reopening_the_store() throws IOException {
+        try (LibraryStore store = LibraryStore.open(directory)) {
+            applyChanges(store.getLibrary());
+        }
+        try (LibraryStore store = LibraryStore.open(directory)) {
+            assertChangesRestored(store.getLibrary());
+        }
+    }
+
+    @Test
+    public void restores_snapshot_and_log_written_after_it() throws IOException {
+        try (LibraryStore store = LibraryStore.open(directory)) {
+            Library library = store.getLibrary();
+            Top58Titles.generateSamples(10, library::addBook);
+            library.lendBook(1, new User("Alicja"));
+            store.checkpoint();
+            library.returnBook(1);
+            library.lendBook(2, new User("Bogdan"));
+            library.removeBook(3);
+        }
+        try (LibraryStore store = LibraryStore.open(directory)) {
+            Library library = store.getLibrary();
+            assertEquals(9, library.totalBooks());
+            assertTrue(library.getBook(1).isAvailable());
+            assertFalse(library.getBook(2).isAvailable());
+            assertEquals(1, library.getCurrentLendings().size());
+            assertEquals("Bogdan", library.getCurrentLendings().get(0).getUser().getName());
+            assertEquals(2, library.lendingHistory().size());
+        }
+    }
+
+    @Test
+    public void users_are_restored_with_their_ids() throws IOException {
+        int adaId;
+        int bobId;
+        try (LibraryStore store = LibraryStore.open(directory)) {
+            Library library = store.getLibrary();
+            Top58Titles.generateSamples(10, library::addBook);
+            User ada = library.registerUser("Ada");
+            adaId = ada.getId();
+            library.lendBook(1, ada);
+            store.checkpoint();
+            bobId = library.registerUser("Ada").getId();
+            library.lendBook(2, ada);
+        }
+        try (LibraryStore store = LibraryStore.open(directory, Library.builder().loanLimit(2))) {
+            Library library = store.getLibrary();
+            User ada = library.getUser(adaId);
+            assertEquals("Ada", ada.getName());
+            assertEquals("Ada", library.getUser(bobId).getName());
+            assertNotEquals(ada, library.getUser(bobId));
+            assertEquals(2, library.getCurrentLendings(ada).size());
+            assertThrows(IllegalStateException.class, () -> library.lendBook(3, ada));
+            assertEquals(bobId + 1, library.registerUser("Cecil").getId());
+        }
+    }
+
+    @Test
+    public void due_dates_are_restored() throws IOException {
+        Lending first;
+        Lending second;
+        try (LibraryStore store = LibraryStore.open(directory, Library.builder().loanPeriod(Duration.ofDays(7)))) {
+            Library library = store.getLibrary();
+            Top58Titles.generateSamples(10, library::addBook);
+            first = library.lendBook(1, new User("Alicja"));
+            store.checkpoint();
+            second = library.lendBook(2, new User("Bogdan"));
+        }
+        try (LibraryStore store = LibraryStore.open(directory)) {
+            Library library = store.getLibrary();
+            assertEquals(first.getDueAt(), library.getBook(1).getLending().getDueAt());
+            assertEquals(second.getDueAt(), library.getBook(2).getLending().getDueAt());
+            assertEquals(2, library.getOverdueLendings(first.getLentAt().plusDays(8)).size());
+        }
+    }
+
+    @Test
+    public void checkpoint_keeps_history_of_removed_books() throws IOException {
+        try (LibraryStore store = LibraryStore.open(directory)) {
+            applyChanges(store.getLibrary());
+            store.checkpoint();
+        }
+        try (LibraryStore store = LibraryStore.open(directory)) {
+            assertChangesRestored(store.getLibrary());
+        }
+    }
+
+    @Test
+    public void checkpoint_encodes_the_state_it_froze() throws IOException {
+        Library library = new Library();
+        applyChanges(library);
+        CheckpointImage[] image = new CheckpointImage[1];
+        library.exclusively(() -> image[0] = library.freezeCheckpoint());
+        library.returnBook(1);
+        library.lendBook(1, new User("Bogdan"));
+        library.lendBook(3, new User("Bogdan"));
+        library.removeBook(4);
+        library.addBook("The Odyssey", "Homer", 1998);
+        byte[] snapshot = SnapshotFile.encode(library, image[0], 1);
+        library.releaseCheckpoint(image[0]);
+
+        Path file = directory.resolve("library.snapshot");
+        SnapshotFile.write(file, snapshot);
+        Library restored = new Library();
+        SnapshotFile.read(file, restored, new HashMap<>());
+        assertChangesRestored(restored);
+    }
+
+    @Test
+    public void torn_record_at_the_end_of_the_log_is_discarded() throws IOException {
+        try (LibraryStore store = LibraryStore.open(directory)) {
+            Top58Titles.generateSamples(3, store.getLibrary()::addBook);
+        }
+        Path log = directory.resolve("library-0.log");
+        Files.write(log, new byte[] {0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+        try (LibraryStore store = LibraryStore.open(directory)) {
+            Library library = store.getLibrary();
+            assertEquals(3, library.totalBooks());
+            library.addBook("The Odyssey", "Homer", 1998);
+        }
+        try (LibraryStore store = LibraryStore.open(directory)) {
+            assertEquals(4, store.getLibrary().totalBooks());
+            assertEquals("The Odyssey", store.getLibrary().getBook(4).getTitle());
+        }
+    }
+
+    private static void applyChanges(Library library) {
+        Top58Titles.generateSamples(5, library::addBook);
+        User alicja = new User("Alicja");
+        library.lendBook(1, alicja);
+        library.lendBook(2, alicja);
+        library.returnBook(2);
+        library.removeBook(2);
+        library.removeBook(5);
+    }
+
+    private static void assertChangesRestored(Library library) {
+        assertEquals(3, library.totalBooks());
+        assertNull(library.getBook(2));
+        assertFalse(library.getBook(1).isAvailable());
+        assertEquals(1, library.getCurrentLendings().size());
+        assertEquals("Alicja", library.getCurrentLendings().get(0).getUser().getName());
+        assertEquals(2, library.lendingHistory().size());
+        assertEquals(6, library.addBook("The Odyssey", "Homer", 1998).getId());
+    }
+}
@@ -2,11 +2,21 @@ package com.adri0.librarian.core;
 
 import com.adri0.librarian.sampledata.Top58Titles;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.NoSuchElementException;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.junit.jupiter.api.Assertions.*;
@@ -47,6 +57,21 @@ public class LibraryTest {
         assertFalse(book.isAvailable());
     }
 
+    @Test
+    public void checked_out_books_are_lent_without_a_lending_object() {
+        libraryWith10Books.checkOut(4, alicja);
+        assertFalse(libraryWith10Books.getBook(4).isAvailable());
+        assertThrows(IllegalStateException.class, () -> libraryWith10Books.checkOut(4, bogdan));
+
+        List<Lending> lendings = libraryWith10Books.getCurrentLendings(alicja);
+        assertEquals(1, lendings.size());
+        Lending lending = lendings.get(0);
+        assertSame(lending, libraryWith10Books.getLendingHistory(4).get(0));
+        libraryWith10Books.returnBook(4);
+        assertNotNull(lending.getReturnedAt());
+        assertTrue(libraryWith10Books.getBook(4).isAvailable());
+    }
+
     @Test
     public void lending_a_book_generates_a_lending_object() throws InterruptedException {
         int bookId = 1;
@@ -85,6 +110,15 @@ public class LibraryTest {
         assertEquals(9, libraryWith10Books.totalBooks());
     }
 
+    @Test
+    public void contains_only_books_in_the_library() {
+        assertTrue(libraryWith10Books.containsBook(1));
+        assertFalse(libraryWith10Books.containsBook(11));
+        assertFalse(libraryWith10Books.containsBook(-1));
+        libraryWith10Books.removeBook(1);
+        assertFalse(libraryWith10Books.containsBook(1));
+    }
+
     @Test
     public void cannot_lend_nonexistent_book() {
         int nonExistentBookId = 11;
@@ -114,6 +148,22 @@ public class LibraryTest {
         assertNotEquals(book1.getId(), book2.getId());
     }
 
+    @Test
+    public void copies_of_a_title_share_the_canonical_title() {
+        Book book1 = libraryWith10Books.getBook(1);
+        Book book2 = libraryWith10Books.addBook(
+                new String(book1.getTitle()), new String(book1.getAuthor()), book1.getYear());
+        assertSame(book1.getTitleObj(), book2.getTitleObj());
+    }
+
+    @Test
+    public void titles_of_an_author_share_the_author_name() {
+        Library library = new Library();
+        Book emma = library.addBook("Emma", new String("Jane Austen"), 1994);
+        Book persuasion = library.addBook("Persuasion", new String("Jane Austen"), 1998);
+        assertSame(emma.getAuthor(), persuasion.getAuthor());
+    }
+
     @Test
     public void full_search_returns_all_books() {
         assertEquals(
@@ -160,6 +210,297 @@ public class LibraryTest {
                 1, 1, 0);
     }
 
+    @Test
+    public void title_overview_follows_lending_and_return() {
+        Library library = new Library();
+        Top58Titles.generateSamples(2, library::addBook);
+        Top58Titles.generateSamples(2, library::addBook);
+        Title title = library.getBook(1).getTitleObj();
+
+        library.lendBook(1, alicja);
+        library.lendBook(3, bogdan);
+        assertTitleOverviewMatches(library.getTitleOverview(title), 2, 0, 2);
+
+        library.returnBook(1);
+        assertTitleOverviewMatches(library.getTitleOverview(title), 2, 1, 1);
+        assertEquals(1, library.getTitleOverview(title).getAvailableBooks().size());
+    }
+
+    @Test
+    public void copies_removed_in_any_order_leave_the_others() {
+        Library library = new Library();
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ids.add(library.addBook("Emma", "Jane Austen", 1994).getId());
+        }
+        Collections.shuffle(ids, new Random(7));
+        Set<Integer> remaining = new HashSet<>(ids);
+        for (int bookId : ids.subList(0, 151)) {
+            library.removeBook(bookId);
+            remaining.remove(bookId);
+        }
+
+        Set<Integer> listed = new HashSet<>();
+        library.listAllTitles().get(0).getAvailableBooks().forEach(book -> listed.add(book.getId()));
+        assertEquals(remaining, listed);
+        assertEquals(49, library.listAllTitles().get(0).totalCopies());
+    }
+
+    @Test
+    public void titles_without_copies_are_not_listed() {
+        Library library = new Library();
+        Top58Titles.generateSamples(2, library::addBook);
+        Title title = library.getBook(1).getTitleObj();
+        library.removeBook(1);
+
+        assertEquals(1, library.listAllTitles().size());
+        assertNull(getOverviewByTitle(library.listAllTitles(), title));
+        assertTitleOverviewMatches(library.getTitleOverview(title), 0, 0, 0);
+    }
+
+    @Test
+    public void import_adds_copies_with_consecutive_ids_per_title() {
+        Library library = new Library();
+        library.addBook("The Odyssey", "Homer", 1998);
+        ImportReport report = library.importBooks(Stream.of(
+                new Title("Emma", "Jane Austen", 1994),
+                new Title("Dracula", "Bram Stoker", 1994),
+                new Title("Emma", "Jane Austen", 1994)));
+
+        assertEquals(3, report.getBooksAdded());
+        assertEquals(2, report.getTitles());
+        assertEquals(4, library.totalBooks());
+        assertEquals("Emma", library.getBook(2).getTitle());
+        assertSame(library.getBook(2).getTitleObj(), library.getBook(3).getTitleObj());
+        assertEquals("Dracula", library.getBook(4).getTitle());
+        assertEquals(5, library.addBook("Ulysses", "James Joyce", 1922).getId());
+    }
+
+    @Test
+    public void parallel_import_adds_every_copy() {
+        Library library = new Library();
+        ImportReport report = library.importBooks(Stream.generate(() -> Top58Titles.top58)
+                .limit(100)
+                .flatMap(Arrays::stream)
+                .parallel()
+                .map(row -> new Title(row[0], row[1], Integer.parseInt(row[2]))));
+
+        assertEquals(5800, report.getBooksAdded());
+        assertEquals(58, report.getTitles());
+        assertEquals(5800, library.totalBooks());
+        assertEquals(58, library.listAllTitles().size());
+        library.listAllTitles().forEach(overview -> assertEquals(100, overview.totalCopies()));
+    }
+
+    @Test
+    public void books_are_imported_from_delimited_files(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("books.csv");
+        Files.write(file, Arrays.asList(
+                "# title, author, year",
+                "\"Narrative of the Life of Frederick Douglass, an American Slave\",FREDERICK DOUGLASS,1963",
+                "",
+                "\"The \"\"Prophet\"\"\",Kahlil Gibran, 1973"));
+
+        Library library = new Library();
+        ImportReport report = library.importBooks(file, ',', false);
+
+        assertEquals(2, report.getBooksAdded());
+        assertEquals("Narrative of the Life of Frederick Douglass, an American Slave", library.getBook(1).getTitle());
+        assertEquals("The \"Prophet\"", library.getBook(2).getTitle());
+        assertEquals(1973, library.getBook(2).getYear());
+    }
+
+    @Test
+    public void malformed_lines_are_rejected(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("books.tsv");
+        Files.write(file, Arrays.asList("Emma\tJane Austen\tnineteen ninety-four"));
+        Assertions.assertThrows(IllegalArgumentException.class, () ->
+                new Library().importBooks(file, '\t', false));
+    }
+
+    @Test
+    public void catalog_snapshot_is_reused_until_the_catalog_changes() {
+        Library library = new Library();
+        Book emma = library.addBook("Emma", "Jane Austen", 1994);
+        Book dracula = library.addBook("Dracula", "Bram Stoker", 1994);
+        CatalogSnapshot first = library.catalogSnapshot();
+        assertSame(first, library.catalogSnapshot());
+        assertEquals(2, first.getTitles().size());
+
+        library.lendBook(emma.getId(), new User("Ada"));
+        CatalogSnapshot second = library.catalogSnapshot();
+        assertTrue(second.getVersion() > first.getVersion());
+        assertEquals(1, first.getTitles().get(0).availableCopies());
+        assertEquals(0, second.getTitles().get(0).availableCopies());
+        assertSame(first.getTitles().get(1), second.getTitles().get(1));
+
+        library.removeBook(dracula.getId());
+        assertEquals(1, library.listAllTitles().size());
+        assertThrows(UnsupportedOperationException.class, () -> library.listAllTitles().clear());
+    }
+
+    @Test
+    public void catalog_snapshots_keep_their_titles_when_many_are_dropped() {
+        Library library = new Library();
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 6_000; i++) {
+            books.add(library.addBook("Title " + i, "Author", 1994));
+        }
+        CatalogSnapshot before = library.catalogSnapshot();
+        for (int i = 0; i < 6_000; i++) {
+            if (i % 4 != 0) {
+                library.removeBook(books.get(i).getId());
+            }
+        }
+        library.addBook("Emma", "Jane Austen", 1994);
+        CatalogSnapshot after = library.catalogSnapshot();
+
+        assertEquals(6_000, before.getTitles().size());
+        assertEquals("Title 4321", before.getTitles().get(4321).getTitle().getTitle());
+        assertEquals(1_501, after.getTitles().size());
+        for (int i = 0; i < 1_500; i++) {
+            assertEquals("Title " + 4 * i, after.getTitles().get(i).getTitle().getTitle());
+        }
+        assertEquals("Emma", after.getTitles().get(1_500).getTitle().getTitle());
+        List<String> listed = new ArrayList<>();
+        after.getTitles().forEach(overview -> listed.add(overview.getTitle().getTitle()));
+        assertEquals(after.getTitles().stream().map(overview -> overview.getTitle().getTitle()).collect(Collectors.toList()), listed);
+    }
+
+    @Test
+    public void users_are_registered_with_unique_ids() {
+        Library library = new Library();
+        User ada = library.registerUser("Ada");
+        User otherAda = library.registerUser("Ada");
+        assertNotEquals(ada, otherAda);
+        assertSame(ada, library.getUser(ada.getId()));
+        assertNull(library.getUser(-1));
+
+        User bob = new User("Bob");
+        assertNull(library.getUser(bob.getId()));
+        library.addBook("Emma", "Jane Austen", 1994);
+        library.lendBook(1, bob);
+        assertSame(bob, library.getUser(bob.getId()));
+        assertEquals(3, bob.getId());
+        assertEquals(1, new Library().registerUser("Cecil").getId());
+    }
+
+    @Test
+    public void current_lendings_of_a_user() {
+        Library library = new Library();
+        Top58Titles.generateSamples(10, library::addBook);
+        User ada = library.registerUser("Ada");
+        User bob = library.registerUser("Bob");
+        Lending first = library.lendBook(1, ada);
+        library.lendBook(2, bob);
+        Lending third = library.lendBook(3, ada);
+        library.lendBook(4, ada);
+        library.returnBook(4);
+
+        assertEquals(Arrays.asList(first, third), library.getCurrentLendings(ada));
+        assertEquals(1, library.getCurrentLendings(bob).size());
+        assertEquals(0, library.getCurrentLendings(new User("Cecil")).size());
+        assertEquals(3, library.getLendingHistory(ada).size());
+    }
+
+    @Test
+    public void lending_beyond_the_loan_limit_is_not_allowed() {
+        Library library = Library.builder().loanLimit(2).build();
+        Top58Titles.generateSamples(10, library::addBook);
+        User ada = library.registerUser("Ada");
+        library.lendBook(1, ada);
+        library.lendBook(2, ada);
+        assertThrows(IllegalStateException.class, () -> library.lendBook(3, ada));
+        assertTrue(library.getBook(3).isAvailable());
+        library.returnBook(1);
+        library.lendBook(3, ada);
+        assertEquals(2, library.getCurrentLendings(ada).size());
+    }
+
+    @Test
+    public void overdue_lendings_are_found_by_due_date() {
+        Library library = Library.builder().loanPeriod(Duration.ofDays(14)).build();
+        Top58Titles.generateSamples(10, library::addBook);
+        LocalDateTime now = LocalDateTime.now();
+        Lending first = library.lendBook(3, alicja);
+        library.lendBook(1, bogdan);
+        Lending last = library.lendBook(2, alicja);
+        library.returnBook(1);
+
+        assertEquals(first.getLentAt().plusDays(14), first.getDueAt());
+        assertTrue(library.getOverdueLendings().isEmpty());
+        List<Lending> overdue = library.getOverdueLendings(now.plusDays(15));
+        assertEquals(2, overdue.size());
+        assertSame(first, overdue.get(0));
+        assertSame(last, overdue.get(1));
+        assertTrue(last.isOverdue(now.plusDays(15)));
+    }
+
+    @Test
+    public void lendings_are_timestamped_by_the_library_clock() {
+        LocalDateTime start = LocalDateTime.of(2020, 3, 1, 10, 0);
+        ZoneId zone = ZoneId.of("Europe/Warsaw");
+        Library library = Library.builder()
+                .clock(Clock.fixed(start.atZone(zone).toInstant(), zone))
+                .loanPeriod(Duration.ofDays(14))
+                .build();
+        Top58Titles.generateSamples(10, library::addBook);
+
+        Lending lending = library.lendBook(1, alicja);
+        assertEquals(start, lending.getLentAt());
+        assertEquals(start.plusDays(14), lending.getDueAt());
+        library.returnBook(1);
+        assertEquals(start, lending.getReturnedAt());
+        assertEquals(1, library.getLendingHistory(start, start.plusSeconds(1)).size());
+    }
+
+    @Test
+    public void watch_reports_lendings_as_they_become_overdue() throws InterruptedException {
+        Library library = Library.builder().loanPeriod(Duration.ofMillis(50)).build();
+        Top58Titles.generateSamples(10, library::addBook);
+        BlockingQueue<Lending> overdue = new LinkedBlockingQueue<>();
+        OverdueWatch watch = library.watchOverdue(overdue::add, Duration.ofMillis(10));
+        library.lendBook(2, alicja);
+        library.returnBook(2);
+        library.lendBook(1, bogdan);
+        Lending lending = overdue.poll(5, TimeUnit.SECONDS);
+        watch.close();
+        assertNotNull(lending);
+        assertEquals(1, lending.getBook().getId());
+    }
+
+    @Test
+    public void books_are_lent_in_batches_with_a_result_per_book() {
+        libraryWith10Books.lendBook(3, bogdan);
+        BatchResult result = libraryWith10Books.lendBooks(new int[]{1, 3, 99, 2, 5, 1}, alicja);
+
+        assertEquals(6, result.size());
+        assertEquals(3, result.successes());
+        assertEquals(1, result.getLending(0).getBook().getId());
+        assertEquals(2, result.getLending(3).getBook().getId());
+        assertEquals(5, result.getLending(4).getBook().getId());
+        assertTrue(result.getFailure(1) instanceof IllegalStateException);
+        assertTrue(result.getFailure(2) instanceof NoSuchElementException);
+        assertTrue(result.getFailure(5) instanceof IllegalStateException);
+        assertEquals(result.getLending(0).getLentAt(), result.getLending(3).getLentAt());
+        assertEquals(3, libraryWith10Books.getCurrentLendings(alicja).size());
+    }
+
+    @Test
+    public void books_are_returned_in_batches_with_a_result_per_book() {
+        libraryWith10Books.lendBooks(new int[]{1, 2, 3}, alicja);
+        BatchResult result = libraryWith10Books.returnBooks(new int[]{3, 4, 1});
+
+        assertTrue(result.isSuccess(0));
+        assertFalse(result.isSuccess(1));
+        assertNull(result.getLending(1));
+        assertNotNull(result.getLending(2).getReturnedAt());
+        assertEquals(2, result.getLendings().size());
+        assertTrue(libraryWith10Books.getBook(1).isAvailable());
+        assertFalse(libraryWith10Books.getBook(2).isAvailable());
+        assertEquals(1, libraryWith10Books.getCurrentLendings().size());
+    }
+
     private static TitleOverview getOverviewByTitle(
             List<TitleOverview> allOverviews, Title title) {
         for (TitleOverview overview : allOverviews) {
@@ -0,0 +1,61 @@
+package com.adri0.librarian.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class LocalClockTest {
+
+    private static final ZoneId WARSAW = ZoneId.of("Europe/Warsaw");
+
+    @Test
+    public void local_time_follows_the_offset_of_the_zone() {
+        MovableClock clock = new MovableClock(LocalDateTime.of(2020, 3, 29, 1, 30).atZone(WARSAW).toInstant());
+        LocalClock localClock = new LocalClock(clock);
+        assertEquals(LendingHistory.toMillis(LocalDateTime.of(2020, 3, 29, 1, 30)), localClock.millis());
+
+        clock.advance(Duration.ofHours(1));
+        assertEquals(LendingHistory.toMillis(LocalDateTime.of(2020, 3, 29, 3, 30)), localClock.millis());
+
+        clock.advance(Duration.ofDays(-1));
+        assertEquals(LendingHistory.toMillis(LocalDateTime.of(2020, 3, 28, 2, 30)), localClock.millis());
+    }
+
+    @Test
+    public void local_time_of_a_fixed_offset() {
+        Instant instant = Instant.parse("2020-03-01T10:00:00Z");
+        LocalClock localClock = new LocalClock(Clock.fixed(instant, ZoneOffset.ofHours(-3)));
+        assertEquals(LendingHistory.toMillis(LocalDateTime.of(2020, 3, 1, 7, 0)), localClock.millis());
+    }
+
+    private static class MovableClock extends Clock {
+
+        private Instant instant;
+
+        MovableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return WARSAW;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
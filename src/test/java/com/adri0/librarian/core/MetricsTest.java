@@ -0,0 +1,84 @@
+package com.adri0.librarian.core;
+
+import com.adri0.librarian.core.LibraryMetrics.Operation;
+import com.adri0.librarian.sampledata.Top58Titles;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class MetricsTest {
+
+    @Test
+    public void histogram_percentiles_are_within_a_bucket() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000_000, histogram.getMax());
+        assertEquals(5_000_500, histogram.getMean(), 0.1);
+        assertEquals(5_000_000, histogram.getValueAtPercentile(50), 5_000_000 / 64);
+        assertEquals(9_900_000, histogram.getValueAtPercentile(99), 9_900_000 / 64);
+        assertEquals(10_000_000, histogram.getValueAtPercentile(100));
+        assertEquals(0, new Histogram().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void histogram_buckets_cover_every_value() {
+        long[] values = {0, 1, 63, 64, 65, 127, 128, 1_000_003, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue(Histogram.highestValueOf(bucket) >= value);
+            assertTrue(bucket == 0 || Histogram.highestValueOf(bucket - 1) < value);
+        }
+    }
+
+    @Test
+    public void operations_and_queries_are_recorded() {
+        MetricsRecorder metrics = new MetricsRecorder();
+        Library library = Library.builder().metrics(metrics).build();
+        Top58Titles.generateSamples(10, library::addBook);
+        User alicja = new User("Alicja");
+
+        library.lendBook(1, alicja);
+        library.checkOut(2, alicja);
+        assertThrows(IllegalStateException.class, () -> library.lendBook(1, alicja));
+        library.returnBook(1);
+        library.listAllTitles();
+        int returned = library.search().byAuthor("Mark Twain").execute().size();
+
+        assertEquals(2, metrics.getLatencies(Operation.LEND).getCount());
+        assertEquals(1, metrics.getLatencies(Operation.RETURN).getCount());
+        assertEquals(1, metrics.getLatencies(Operation.LIST_ALL_TITLES).getCount());
+        assertEquals(1, metrics.getLatencies(Operation.QUERY).getCount());
+        assertEquals(0, metrics.getLatencies(Operation.TITLE_OVERVIEW).getCount());
+        assertEquals(returned, metrics.getRowsReturned().getSum());
+        assertTrue(metrics.getRowsScanned().getSum() >= returned);
+    }
+
+    @Test
+    public void gauges_and_metrics_are_exported_to_jmx() throws Exception {
+        Library library = Library.builder().metrics(new MetricsRecorder()).build();
+        Top58Titles.generateSamples(10, library::addBook);
+        library.lendBook(3, new User("Alicja"));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        JmxExporter exporter = JmxExporter.register(library, "metrics-test");
+        try {
+            assertEquals(10L, server.getAttribute(exporter.getObjectName(), "Books"));
+            assertEquals(1L, server.getAttribute(exporter.getObjectName(), "LentBooks"));
+            assertEquals(1L, server.getAttribute(exporter.getObjectName(), "LendCount"));
+            assertEquals(0L, server.getAttribute(exporter.getObjectName(), "LendBatchCount"));
+            assertTrue((Long) server.getAttribute(exporter.getObjectName(), "LendMaxNanos") > 0);
+            assertThrows(IllegalStateException.class, () -> JmxExporter.register(library, "metrics-test"));
+        } finally {
+            exporter.close();
+        }
+        assertFalse(server.isRegistered(exporter.getObjectName()));
+    }
+}
@@ -4,6 +4,8 @@ import com.adri0.librarian.sampledata.Top58Titles;
 import org.junit.jupiter.api.*;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -95,4 +97,275 @@ public class QueryTest {
                 .execute();
         assertEquals(2, result.size());
     }
+
+    @Test
+    public void indexed_search_matches_substring_semantics() {
+        Library library = new Library();
+        Top58Titles.generateSamples(58, library::addBook);
+        Top58Titles.generateSamples(58, library::addBook);
+        for (String fragment : Arrays.asList("dickens", "DICK", "ck", "e", "", "Machado")) {
+            Set<Integer> expected = new HashSet<>();
+            new Query(library.allBooks()).byAuthor(fragment).execute()
+                    .forEach(book -> expected.add(book.getId()));
+            Set<Integer> actual = new HashSet<>();
+            library.search().byAuthor(fragment).execute()
+                    .forEach(book -> actual.add(book.getId()));
+            assertEquals(expected, actual, "fragment: " + fragment);
+        }
+    }
+
+    @Test
+    public void indexed_search_expands_titles_into_copies() {
+        Library library = new Library();
+        Top58Titles.generateSamples(58, library::addBook);
+        Top58Titles.generateSamples(58, library::addBook);
+        List<Book> result = library.search()
+                .byAuthor("dickens")
+                .byTitle("tale")
+                .execute();
+        assertEquals(2, result.size());
+        result.forEach(book -> assertEquals("A Tale of Two Cities", book.getTitle()));
+    }
+
+    @Test
+    public void removed_titles_are_not_found_by_indexed_search() {
+        Library library = new Library();
+        Book book = library.addBook("The Odyssey", "Homer", 1998);
+        assertEquals(1, library.search().byAuthor("homer").execute().size());
+        library.removeBook(book.getId());
+        assertEquals(0, library.search().byAuthor("homer").execute().size());
+        assertEquals(0, library.search().byTitle("odyssey").execute().size());
+    }
+
+    @Test
+    public void search_by_year_range() {
+        assertEquals(query.by(book -> book.getYear() >= 1990 && book.getYear() <= 1995).execute().size(),
+                new Query(bookSet).byYearRange(1990, 1995).execute().size());
+        assertEquals(0, new Query(bookSet).byYearRange(1995, 1990).execute().size());
+        new Query(bookSet).publishedAfter(1990).execute()
+                .forEach(book -> assertTrue(book.getYear() > 1990));
+        new Query(bookSet).publishedBefore(1990).execute()
+                .forEach(book -> assertTrue(book.getYear() < 1990));
+    }
+
+    @Test
+    public void indexed_year_search_matches_scanning() {
+        Library library = new Library();
+        Top58Titles.generateSamples(58, library::addBook);
+        Top58Titles.generateSamples(58, library::addBook);
+        int[][] ranges = {{1990, 1995}, {1950, 1950}, {Integer.MIN_VALUE, 1900}, {2000, Integer.MAX_VALUE}};
+        for (int[] range : ranges) {
+            Set<Integer> expected = new HashSet<>();
+            new Query(library.allBooks()).byYearRange(range[0], range[1]).execute()
+                    .forEach(book -> expected.add(book.getId()));
+            Set<Integer> actual = new HashSet<>();
+            library.search().byYearRange(range[0], range[1]).execute()
+                    .forEach(book -> actual.add(book.getId()));
+            assertEquals(expected, actual, "range: " + Arrays.toString(range));
+        }
+        assertEquals(new Query(library.allBooks()).publishedAfter(1990).execute().size(),
+                library.search().publishedAfter(1990).execute().size());
+        assertEquals(new Query(library.allBooks()).publishedBefore(1990).byAuthor("austen").execute().size(),
+                library.search().publishedBefore(1990).byAuthor("austen").execute().size());
+        assertEquals(0, library.search().publishedAfter(Integer.MAX_VALUE).execute().size());
+    }
+
+    @Test
+    public void removed_titles_are_not_found_by_year() {
+        Library library = new Library();
+        Book book = library.addBook("The Odyssey", "Homer", 1998);
+        assertEquals(1, library.search().byYear(1998).execute().size());
+        library.removeBook(book.getId());
+        assertEquals(0, library.search().byYearRange(1990, 2000).execute().size());
+    }
+
+    @Test
+    public void planner_starts_from_the_most_selective_index() {
+        Library library = new Library();
+        Top58Titles.generateSamples(58, library::addBook);
+        Top58Titles.generateSamples(58, library::addBook);
+        String plan = library.search()
+                .publishedAfter(1900)
+                .byAuthor("austen")
+                .byAvailability(true)
+                .explain();
+        assertTrue(plan.startsWith("index lookup author contains \"austen\""), plan);
+        assertTrue(plan.indexOf("filter titles by year") < plan.indexOf("filter books by available"), plan);
+        assertEquals(library.search().byAuthor("austen").publishedAfter(1900).execute().size(),
+                library.search().publishedAfter(1900).byAuthor("austen").byAvailability(true).execute().size());
+    }
+
+    @Test
+    public void explain_counts_the_rows_examined() {
+        Library library = new Library();
+        library.addBook("Emma", "Jane Austen", 1994);
+        library.addBook("Emma", "Jane Austen", 1994);
+        library.addBook("Dracula", "Bram Stoker", 1994);
+        String plan = library.search().byTitle("emma").explain();
+        assertTrue(plan.endsWith("titles examined: 1, books examined: 2, books returned: 2"), plan);
+        plan = library.search().byAuthor("e").explain();
+        assertTrue(plan.startsWith("scan all titles"), plan);
+        assertTrue(new Query(library.allBooks()).byYear(1994).explain().startsWith("scan all books"));
+    }
+
+    @Test
+    public void cheap_clauses_are_checked_before_predicates() {
+        List<String> checked = new ArrayList<>();
+        new Query(bookSet)
+                .by(book -> checked.add("predicate"))
+                .byAvailability(false)
+                .execute();
+        assertTrue(checked.isEmpty());
+    }
+
+    @Test
+    public void results_are_ordered_and_paginated() {
+        List<Book> all = new ArrayList<>(bookSet);
+        all.sort(Comparator.comparing(Book::getYear).reversed().thenComparing(Book::getTitle)
+                .thenComparing(Book::getId));
+        List<Book> page = query.orderBy(Query.Order.YEAR, false)
+                .orderBy(Query.Order.TITLE)
+                .offset(10)
+                .limit(5)
+                .execute();
+        assertEquals(all.subList(10, 15), page);
+        assertEquals(all.subList(55, 58), new Query(bookSet).orderBy(Query.Order.YEAR, false)
+                .orderBy(Query.Order.TITLE).offset(55).limit(5).execute());
+        assertEquals(0, new Query(bookSet).limit(0).execute().size());
+    }
+
+    @Test
+    public void cursor_pagination_visits_every_result_once() {
+        Library library = new Library();
+        Top58Titles.generateSamples(58, library::addBook);
+        Top58Titles.generateSamples(58, library::addBook);
+        List<Book> visited = new ArrayList<>();
+        List<Book> page = library.search().orderBy(Query.Order.AUTHOR).limit(20).execute();
+        while (!page.isEmpty()) {
+            visited.addAll(page);
+            page = library.search().orderBy(Query.Order.AUTHOR).after(page.get(page.size() - 1))
+                    .limit(20).execute();
+        }
+        assertEquals(library.search().orderBy(Query.Order.AUTHOR).execute(), visited);
+        assertEquals(116, visited.size());
+        for (int i = 1; i < visited.size(); i++) {
+            assertTrue(visited.get(i - 1).getAuthor().compareTo(visited.get(i).getAuthor()) <= 0);
+        }
+    }
+
+    @Test
+    public void count_and_stream_do_not_collect_results() {
+        Library library = new Library();
+        Top58Titles.generateSamples(58, library::addBook);
+        assertEquals(58, library.search().count());
+        assertEquals(8, library.search().offset(50).count());
+        assertEquals(5, library.search().byAvailability(true).limit(5).count());
+        assertEquals(library.search().byAuthor("dickens").execute().size(),
+                library.search().byAuthor("dickens").count());
+
+        int[] examined = {0};
+        Iterator<Book> books = library.search().by(book -> examined[0]++ >= 0).iterator();
+        books.next();
+        books.next();
+        assertTrue(examined[0] < 58);
+        assertEquals(3, library.search().stream().limit(3).count());
+    }
+
+    @Test
+    public void parallel_queries_return_the_same_results() {
+        Library library = new Library();
+        for (int i = 0; i < 400; i++) {
+            Top58Titles.generateSamples(58, library::addBook);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(
+                    library.search().by(book -> book.getYear() % 2 == 0).count(),
+                    library.search().by(book -> book.getYear() % 2 == 0).parallel(pool).count());
+            assertEquals(
+                    library.search().byAuthor("e").orderBy(Query.Order.TITLE).limit(30).execute(),
+                    library.search().byAuthor("e").orderBy(Query.Order.TITLE).limit(30).parallel(pool).execute());
+            Set<Integer> ids = library.search().parallel().stream()
+                    .map(Book::getId)
+                    .collect(Collectors.toSet());
+            assertEquals(library.totalBooks(), ids.size());
+            assertTrue(library.search().by(book -> true).parallel(pool).explain().contains("in parallel"));
+            assertFalse(library.search().byAuthor("dickens").parallel(pool).explain().contains("in parallel"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void availability_is_read_from_bitmaps() {
+        Library library = new Library();
+        for (int i = 0; i < 10; i++) {
+            Top58Titles.generateSamples(58, library::addBook);
+        }
+        User user = new User("Ada");
+        for (int bookId = 1; bookId <= 580; bookId += 7) {
+            library.lendBook(bookId, user);
+        }
+        library.removeBook(2);
+
+        String plan = library.search().byAvailability(false).publishedAfter(1900).explain();
+        assertTrue(plan.startsWith("bitmap scan available = false (estimated 83 books)"), plan);
+        for (boolean available : new boolean[]{true, false}) {
+            Set<Book> expected = new HashSet<>(new Query(library.allBooks()).byAvailability(available).execute());
+            assertEquals(expected, new HashSet<>(library.search().byAvailability(available).execute()));
+            assertEquals(expected, new HashSet<>(library.search().byAvailability(available).parallel().execute()));
+            assertEquals(new Query(library.allBooks()).byAvailability(available).byAuthor("austen").count(),
+                    library.search().byAvailability(available).byAuthor("austen").count());
+        }
+        assertTrue(library.search().byAuthor("austen").byAvailability(true).explain()
+                .contains("filter titles by has copies available = true"));
+        assertEquals(0, library.search().byAvailability(true).byAvailability(false).count());
+    }
+
+    @Test
+    public void matches_are_counted_by_facet() {
+        Map<String, Long> expected = bookSet.stream()
+                .filter(book -> book.getYear() < 2000)
+                .collect(Collectors.groupingBy(Book::getAuthor, TreeMap::new, Collectors.counting()));
+        Map<String, Long> counts = query.publishedBefore(2000).countBy(Facet.AUTHOR);
+        assertEquals(expected, counts);
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(counts.keySet()));
+
+        FacetCounts facets = new Query(bookSet).facetBy(Facet.DECADE, Facet.of("first letter", book -> book.getTitle().charAt(0)));
+        assertEquals(58, facets.getTotal());
+        assertEquals(bookSet.stream().filter(book -> book.getYear() >= 1990 && book.getYear() < 2000).count(),
+                (long) facets.get(Facet.DECADE).get(1990));
+        assertEquals(58, facets.get(Facet.DECADE).values().stream().mapToLong(Long::longValue).sum());
+        assertThrows(IllegalArgumentException.class, () -> facets.get(Facet.YEAR));
+    }
+
+    @Test
+    public void library_facets_are_counted_from_title_counters() {
+        Library library = new Library();
+        for (int i = 0; i < 3; i++) {
+            Top58Titles.generateSamples(58, library::addBook);
+        }
+        User user = new User("Ada");
+        for (int bookId = 1; bookId <= 174; bookId += 5) {
+            library.lendBook(bookId, user);
+        }
+        library.removeBook(2);
+
+        for (Query facetQuery : new Query[]{
+                library.search(),
+                library.search().byAvailability(true).publishedAfter(1900),
+                library.search().byAuthor("austen").byAvailability(false),
+                library.search().by(book -> book.getId() % 2 == 0).parallel()}) {
+            List<Book> matches = facetQuery.execute();
+            FacetCounts facets = facetQuery.facetBy(Facet.AUTHOR, Facet.YEAR, Facet.AVAILABILITY);
+            assertEquals(matches.size(), facets.getTotal());
+            assertEquals(matches.stream().collect(Collectors.groupingBy(Book::getAuthor, Collectors.counting())),
+                    facets.get(Facet.AUTHOR));
+            assertEquals(matches.stream().collect(Collectors.groupingBy(Book::getYear, Collectors.counting())),
+                    facets.get(Facet.YEAR));
+            assertEquals(matches.stream().collect(Collectors.groupingBy(Book::isAvailable, Collectors.counting())),
+                    facets.get(Facet.AVAILABILITY));
+        }
+        assertEquals(0, library.search().byAvailability(true).byAvailability(false).facetBy(Facet.AUTHOR).getTotal());
+    }
 }